@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.NotificationUtils;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utils.FakeWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Drives a weather sync end to end against a {@link FakeWeatherServer} running on the device, so
+ * that fetch, parse, write and notify can be measured without any network access.
+ * <p>
+ * Each scenario first runs {@link SunshineSyncTask#syncWeather(Context)} a number of times to
+ * measure the whole sync and logs the per-stage statistics {@link SyncMetrics} recorded for those
+ * syncs. It then runs the same stages one at a time to see where that time goes at a finer grain
+ * than the SyncMetrics histograms.
+ * Results are written to logcat under the {@link #TAG} tag, one line per scenario, in a
+ * key=value form that is easy to scrape on CI.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncBenchmark {
+
+    private static final String TAG = "SyncBenchmark";
+
+    private static final long SERVER_SEED = 26;
+
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private FakeWeatherServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeWeatherServer(SERVER_SEED);
+        mServer.start();
+        NetworkUtils.setForecastBaseUrl(mServer.getBaseUrl());
+        SyncMetrics.getInstance(mContext).reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        NetworkUtils.setForecastBaseUrl(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void benchmarkDefaultForecast() throws Exception {
+        runScenario("default", 14, 0, 0);
+    }
+
+    @Test
+    public void benchmarkLargeForecast() throws Exception {
+        runScenario("large", 365, 0, 0);
+    }
+
+    @Test
+    public void benchmarkSlowNetwork() throws Exception {
+        /* Roughly a congested 3G link: 300ms to first byte and 50 KB/s */
+        runScenario("slow_network", 14, 300, 50 * 1024);
+    }
+
+    @Test
+    public void benchmarkFlakyServer() throws Exception {
+        mServer.setErrorRate(0.3);
+        runScenario("flaky_server", 14, 0, 0);
+        assertTrue("The flaky server never failed a request", mServer.getErrorCount() > 0);
+    }
+
+    /**
+     * Runs one benchmark scenario and logs its results.
+     *
+     * @param name           Name of the scenario as it will appear in the results
+     * @param forecastDays   Number of days the server puts in each forecast
+     * @param latencyMillis  Delay before the server starts to answer
+     * @param bytesPerSecond Bandwidth the server throttles to, or 0 for unthrottled
+     */
+    private void runScenario(String name, int forecastDays, long latencyMillis,
+                             long bytesPerSecond) throws Exception {
+        mServer.setForecastDays(forecastDays);
+        mServer.setLatencyMillis(latencyMillis);
+        mServer.setBandwidthBytesPerSecond(bytesPerSecond);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            SunshineSyncTask.syncWeather(mContext);
+        }
+
+        SyncMetrics.getInstance(mContext).reset();
+
+        long[] syncNanos = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            SunshineSyncTask.syncWeather(mContext);
+            syncNanos[i] = System.nanoTime() - start;
+        }
+
+        logSyncStats(name);
+
+        long[] fetchNanos = new long[MEASURED_ITERATIONS];
+        long[] parseNanos = new long[MEASURED_ITERATIONS];
+        long[] writeNanos = new long[MEASURED_ITERATIONS];
+        long[] notifyNanos = new long[MEASURED_ITERATIONS];
+        long payloadChars = 0;
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        int measured = 0;
+        while (measured < MEASURED_ITERATIONS) {
+            long start = System.nanoTime();
+            URL weatherRequestUrl = NetworkUtils.getUrl(mContext);
+            String json;
+            try {
+                json = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            } catch (IOException e) {
+                /* The server answered with an error; that iteration doesn't count */
+                continue;
+            }
+            long fetched = System.nanoTime();
+
+            ContentValues[] weatherValues =
+                    OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json);
+            long parsed = System.nanoTime();
+
+            contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+            contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+            long written = System.nanoTime();
+
+            NotificationUtils.notifyUserOfNewWeather(mContext);
+            long notified = System.nanoTime();
+
+            fetchNanos[measured] = fetched - start;
+            parseNanos[measured] = parsed - fetched;
+            writeNanos[measured] = written - parsed;
+            notifyNanos[measured] = notified - written;
+            payloadChars = json.length();
+            measured++;
+        }
+
+        assertRowCount(forecastDays);
+
+        Log.i(TAG, String.format(Locale.US,
+                "scenario=%s days=%d payload_chars=%d requests=%d errors=%d "
+                        + "sync_p50_ms=%.2f sync_max_ms=%.2f "
+                        + "fetch_p50_ms=%.2f parse_p50_ms=%.2f write_p50_ms=%.2f notify_p50_ms=%.2f",
+                name, forecastDays, payloadChars,
+                mServer.getRequestCount(), mServer.getErrorCount(),
+                median(syncNanos) / 1e6, max(syncNanos) / 1e6,
+                median(fetchNanos) / 1e6, median(parseNanos) / 1e6,
+                median(writeNanos) / 1e6, median(notifyNanos) / 1e6));
+    }
+
+    /**
+     * Logs the per-stage statistics that SyncMetrics recorded during the measured syncs, read
+     * back through the provider the same way they would be read in the field.
+     */
+    private void logSyncStats(String name) {
+        Cursor cursor = mContext.getContentResolver().query(
+                SyncStatsContract.SyncStatsEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+        assertNotNull("Sync stats cursor was null.", cursor);
+
+        long fetches = 0;
+        while (cursor.moveToNext()) {
+            String stage = cursor.getString(
+                    cursor.getColumnIndex(SyncStatsContract.SyncStatsEntry.COLUMN_STAGE));
+            long count = cursor.getLong(
+                    cursor.getColumnIndex(SyncStatsContract.SyncStatsEntry.COLUMN_COUNT));
+            if (SyncMetrics.getStageName(SyncMetrics.STAGE_FETCH).equals(stage)) {
+                fetches = count;
+            }
+
+            Log.i(TAG, String.format(Locale.US,
+                    "scenario=%s stage=%s count=%d failures=%d p50_ms=%d p99_ms=%d max_ms=%d",
+                    name, stage, count,
+                    cursor.getLong(cursor.getColumnIndex(
+                            SyncStatsContract.SyncStatsEntry.COLUMN_FAILURES)),
+                    cursor.getLong(cursor.getColumnIndex(
+                            SyncStatsContract.SyncStatsEntry.COLUMN_P50_MILLIS)),
+                    cursor.getLong(cursor.getColumnIndex(
+                            SyncStatsContract.SyncStatsEntry.COLUMN_P99_MILLIS)),
+                    cursor.getLong(cursor.getColumnIndex(
+                            SyncStatsContract.SyncStatsEntry.COLUMN_MAX_MILLIS))));
+        }
+        cursor.close();
+
+        assertTrue("SyncMetrics did not record the fetches", fetches > 0);
+    }
+
+    private void assertRowCount(int expectedRows) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("Sync did not write the whole forecast", expectedRows, cursor.getCount());
+        cursor.close();
+    }
+
+    private static double median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static double max(long[] samples) {
+        long max = 0;
+        for (long sample : samples) {
+            max = Math.max(max, sample);
+        }
+        return max;
+    }
+}
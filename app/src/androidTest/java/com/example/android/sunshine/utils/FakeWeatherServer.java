@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import com.example.android.sunshine.utilities.FakeDataUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * A tiny HTTP server that stands in for the Sunshine weather server so that a sync can be driven
+ * end to end without any network access. Every request, whatever its path or query, is answered
+ * with a forecast payload. The payload is either a recorded response handed to
+ * {@link #setRecordedPayload(String)} or a synthetic forecast with {@link #setForecastDays(int)}
+ * days in it, generated by {@link FakeDataUtils#createForecastJson}.
+ * <p>
+ * To make the stand-in behave more like a real server, the response can be delayed by a fixed
+ * latency, throttled to a given bandwidth and replaced by an HTTP 500 at a given error rate. The
+ * error rate uses a seeded Random so that a benchmark run is repeatable.
+ */
+public class FakeWeatherServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Bytes written per chunk when the response is being throttled */
+    private static final int THROTTLE_CHUNK_BYTES = 1024;
+
+    private ServerSocket mServerSocket;
+    private Thread mServerThread;
+
+    private volatile long mLatencyMillis;
+    private volatile long mBandwidthBytesPerSecond;
+    private volatile double mErrorRate;
+    private volatile int mForecastDays = 14;
+    private volatile String mRecordedPayload;
+
+    private final long mSeed;
+    private final Random mRandom;
+
+    private volatile int mRequestCount;
+    private volatile int mErrorCount;
+    private volatile long mBytesServed;
+
+    public FakeWeatherServer(long seed) {
+        mSeed = seed;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Starts listening on an ephemeral port on the loopback interface.
+     *
+     * @throws IOException If the server socket can't be opened
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        Socket socket = mServerSocket.accept();
+                        try {
+                            serve(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        /* Either we were shut down or the client went away; keep serving */
+                    }
+                }
+            }
+        }, "FakeWeatherServer");
+        mServerThread.start();
+    }
+
+    /**
+     * Stops the server and waits for its thread to finish.
+     */
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mServerThread.join();
+    }
+
+    /**
+     * @return The base URL to hand to NetworkUtils.setForecastBaseUrl
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/weather";
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param bytesPerSecond Bandwidth to throttle the response body to, or 0 for no throttling
+     */
+    public void setBandwidthBytesPerSecond(long bytesPerSecond) {
+        mBandwidthBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param errorRate Fraction of requests, between 0 and 1, that are answered with HTTP 500
+     */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * @param forecastDays Number of days in the synthetic forecast, which controls payload size
+     */
+    public void setForecastDays(int forecastDays) {
+        mForecastDays = forecastDays;
+    }
+
+    /**
+     * @param recordedPayload A recorded server response to serve instead of a synthetic one, or
+     *                        null to go back to synthetic payloads
+     */
+    public void setRecordedPayload(String recordedPayload) {
+        mRecordedPayload = recordedPayload;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public int getErrorCount() {
+        return mErrorCount;
+    }
+
+    public long getBytesServed() {
+        return mBytesServed;
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), UTF_8));
+
+        /* Consume the request line and headers; we answer every request the same way */
+        String line = reader.readLine();
+        while (line != null && line.length() != 0) {
+            line = reader.readLine();
+        }
+
+        mRequestCount++;
+        sleepQuietly(mLatencyMillis);
+
+        boolean fail;
+        synchronized (mRandom) {
+            fail = mRandom.nextDouble() < mErrorRate;
+        }
+
+        int statusCode;
+        String statusText;
+        byte[] body;
+        if (fail) {
+            mErrorCount++;
+            statusCode = 500;
+            statusText = "Internal Server Error";
+            body = "{\"cod\":500}".getBytes(UTF_8);
+        } else {
+            statusCode = 200;
+            statusText = "OK";
+            String payload = mRecordedPayload;
+            if (payload == null) {
+                payload = FakeDataUtils.createForecastJson(mSeed, 0,
+                        System.currentTimeMillis(), mForecastDays,
+                        SunshineDateUtils.DAY_IN_MILLIS);
+            }
+            body = payload.getBytes(UTF_8);
+        }
+
+        String headers = "HTTP/1.1 " + statusCode + " " + statusText + "\r\n"
+                + "Content-Type: application/json; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+
+        OutputStream out = socket.getOutputStream();
+        out.write(headers.getBytes(UTF_8));
+        writeThrottled(out, body);
+        out.flush();
+
+        mBytesServed += body.length;
+    }
+
+    private void writeThrottled(OutputStream out, byte[] body) throws IOException {
+        long bandwidth = mBandwidthBytesPerSecond;
+        if (bandwidth <= 0) {
+            out.write(body);
+            return;
+        }
+
+        for (int offset = 0; offset < body.length; offset += THROTTLE_CHUNK_BYTES) {
+            int count = Math.min(THROTTLE_CHUNK_BYTES, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            sleepQuietly(count * 1000L / bandwidth);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
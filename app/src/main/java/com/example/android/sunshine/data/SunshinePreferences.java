@@ -242,4 +242,59 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns a fingerprint of the weather last sent to the watch face, so that a sync which
+     * doesn't change anything the watch shows can skip sending it again.
+     *
+     * @param context Used to access SharedPreferences
+     * @return the fingerprint last saved, or null if nothing has been sent yet
+     */
+    public static String getLastWearFingerprint(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastWearFingerprintKey = context.getString(R.string.pref_last_wear_fingerprint);
+        return sp.getString(lastWearFingerprintKey, null);
+    }
+
+    /**
+     * Saves the fingerprint of the weather that was just sent to the watch face.
+     *
+     * @param context     Used to access SharedPreferences
+     * @param fingerprint Fingerprint of the data item that was sent, or null to force the next
+     *                    sync to send again
+     */
+    public static void saveLastWearFingerprint(Context context, String fingerprint) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        String lastWearFingerprintKey = context.getString(R.string.pref_last_wear_fingerprint);
+        editor.putString(lastWearFingerprintKey, fingerprint);
+        editor.apply();
+    }
+
+    /**
+     * Returns the last time that weather was successfully synced (in UNIX time)
+     *
+     * @param context Used to access SharedPreferences
+     * @return UNIX time of the last successful sync, or 0 if there hasn't been one
+     */
+    public static long getLastSyncTimeInMillis(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastSyncKey = context.getString(R.string.pref_last_sync);
+        return sp.getLong(lastSyncKey, 0);
+    }
+
+    /**
+     * Saves the time that weather was successfully synced. Refresh requests from the watch are
+     * ignored for a while after this.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param timeOfSync Time of the sync to save (in UNIX time)
+     */
+    public static void saveLastSyncTime(Context context, long timeOfSync) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        String lastSyncKey = context.getString(R.string.pref_last_sync);
+        editor.putLong(lastSyncKey, timeOfSync);
+        editor.apply();
+    }
+}
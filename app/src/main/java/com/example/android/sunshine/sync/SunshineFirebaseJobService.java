@@ -15,8 +15,7 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.Context;
-import android.os.AsyncTask;
+import android.support.v4.os.CancellationSignal;
 
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
@@ -26,7 +25,7 @@ import com.firebase.jobdispatcher.RetryStrategy;
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private CancellationSignal mCancellationSignal;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -41,28 +40,28 @@ public class SunshineFirebaseJobService extends JobService {
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
-            @Override
-            protected Void doInBackground(Void... voids) {
-                Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
-            }
+        mCancellationSignal = SunshineSyncExecutor.syncWeather(getApplicationContext(),
+                new SunshineSyncExecutor.OnSyncFinishedListener() {
+                    @Override
+                    public void onSyncFinished(boolean canceled) {
+                        /*
+                         * If the job was stopped, the dispatcher already considers it over and
+                         * will reschedule it because onStopJob asked for a retry.
+                         */
+                        if (!canceled) {
+                            jobFinished(jobParameters, false);
+                        }
+                    }
+                });
 
-            @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
-            }
-        };
-
-        mFetchWeatherTask.execute();
         return true;
     }
 
     /**
      * Called when the scheduling engine has decided to interrupt the execution of a running job,
      * most likely because the runtime constraints associated with the job are no longer satisfied.
+     * Canceling aborts the weather request if one is in flight and stops the sync at its next
+     * checkpoint, so we don't keep burning CPU on work the system asked us to drop.
      *
      * @return whether the job should be retried
      * @see Job.Builder#setRetryStrategy(RetryStrategy)
@@ -70,8 +69,8 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
         }
         return true;
     }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.v4.os.CancellationSignal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs weather syncs on a dedicated background thread, rather than on the AsyncTask executor that
+ * the rest of the app shares. Every sync it starts can be canceled through the
+ * {@link CancellationSignal} it returns.
+ */
+class SunshineSyncExecutor {
+
+    /**
+     * Callback for when a sync started by {@link #syncWeather} is over, whether it completed or
+     * was canceled. It is called on the sync thread.
+     */
+    interface OnSyncFinishedListener {
+        void onSyncFinished(boolean canceled);
+    }
+
+    /*
+     * Syncs are serialized by SunshineSyncTask anyway, so a single thread is all we need. It runs
+     * at background priority so that a sync never competes with the UI for the CPU.
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "SunshineSync");
+                }
+            });
+
+    /**
+     * Queues a weather sync.
+     *
+     * @param context  Context passed on to SunshineSyncTask
+     * @param listener Called once the sync is over
+     * @return a CancellationSignal that stops the sync at its next checkpoint, or before it
+     * starts if it is still queued
+     */
+    static CancellationSignal syncWeather(@NonNull final Context context,
+                                          @NonNull final OnSyncFinishedListener listener) {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancellationSignal.isCanceled()) {
+                    SunshineSyncTask.syncWeather(context, cancellationSignal);
+                }
+                listener.onSyncFinished(cancellationSignal.isCanceled());
+            }
+        });
+
+        return cancellationSignal;
+    }
+}
@@ -18,11 +18,10 @@ package com.example.android.sunshine.sync;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.Bundle;
-import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.os.CancellationSignal;
 import android.text.format.DateUtils;
+import android.util.Base64;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
@@ -30,26 +29,38 @@ import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
 
 import java.net.URL;
-
-import static android.content.ContentValues.TAG;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
     private static final String TEMP_HIGH = "com.sunshine.weather.hightemp";
     private static final String TEMP_LOW = "com.sunshine.weather.lowtemp";
-    private static final String CONDITION = "com.sunshine.weather.condition";
+    private static final String WEATHER_ID = "com.sunshine.weather.id";
+    private static final String PAYLOAD_VERSION = "com.sunshine.weather.version";
+    private static final String FORECAST = "com.sunshine.weather.forecast";
+
+    /* Today and the two days after it, enough to bridge a couple of missed syncs */
+    private static final int WEAR_FORECAST_DAYS = 3;
+
+    /*
+     * When the phone last synced, sent in an item of its own. It changes every sync, so it can't
+     * go in the weather item without defeating the fingerprint.
+     */
+    private static final String PATH_SYNCED = "/weather/synced";
+    private static final String SYNCED_AT = "com.sunshine.weather.syncedat";
+
+    /*
+     * Version 1 carried the condition icon as a PNG Asset, which the watch face still accepts
+     * from older phones. We send version 2, which only carries the weather id, and the watch
+     * looks the icon up in its own resources.
+     */
+    private static final int PAYLOAD_VERSION_COMPACT = 2;
 
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
@@ -59,9 +70,30 @@ public class SunshineSyncTask {
      *
      * @param context Used to access utility methods and the ContentResolver
      */
-    synchronized public static void syncWeather(Context context) {
+    public static void syncWeather(Context context) {
+        syncWeather(context, null);
+    }
+
+    /**
+     * Performs a weather sync that can be canceled part way through. Cancellation is cooperative:
+     * an in-flight HTTP request is aborted straight away, and the sync checks the signal between
+     * the fetch, parse and write stages. Once the delete of old data has started, the sync runs to
+     * completion so that it never leaves the database empty.
+     *
+     * @param context            Used to access utility methods and the ContentResolver
+     * @param cancellationSignal Signal used to cancel the sync, or null if it can't be canceled
+     */
+    synchronized public static void syncWeather(Context context,
+            @Nullable CancellationSignal cancellationSignal) {
+
+        SyncMetrics metrics = SyncMetrics.getInstance(context);
+
+        /* Tracks which stage we're in, so that a failure can be attributed to it */
+        int stage = SyncMetrics.STAGE_FETCH;
 
         try {
+            long stageStart = System.nanoTime();
+
             /*
              * The getUrl method will return the URL that we need to get the forecast JSON for the
              * weather. It will decide whether to create a URL based off of the latitude and
@@ -70,12 +102,28 @@ public class SunshineSyncTask {
             URL weatherRequestUrl = NetworkUtils.getUrl(context);
 
             /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            String jsonWeatherResponse = NetworkUtils
+                    .getResponseFromHttpUrl(weatherRequestUrl, cancellationSignal);
+
+            long responseLength = jsonWeatherResponse == null ? 0 : jsonWeatherResponse.length();
+            stageStart = recordStage(metrics, stage, stageStart, responseLength, 0);
+            throwIfCanceled(cancellationSignal);
+            stage = SyncMetrics.STAGE_PARSE;
 
             /* Parse the JSON into a list of weather values */
             ContentValues[] weatherValues = OpenWeatherJsonUtils
                     .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
 
+            int rowCount = weatherValues == null ? 0 : weatherValues.length;
+            if (rowCount == 0) {
+                /* An error code or an empty list; either way this sync didn't get any weather */
+                Log.e(TAG, "Weather sync found no weather in a response of " + responseLength
+                        + " chars");
+                metrics.recordFailure(stage, "No weather in response");
+                return;
+            }
+            stageStart = recordStage(metrics, stage, stageStart, responseLength, rowCount);
+
             /*
              * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
              * would have returned null. We need to check for those cases here to prevent any
@@ -83,20 +131,34 @@ public class SunshineSyncTask {
              * there isn't any to insert.
              */
             if (weatherValues != null && weatherValues.length != 0) {
+                /* This is the last chance to stop; past here we replace the stored forecast */
+                throwIfCanceled(cancellationSignal);
+                stage = SyncMetrics.STAGE_DELETE;
+
                 /* Get a handle on the ContentResolver to delete and insert data */
                 ContentResolver sunshineContentResolver = context.getContentResolver();
 
                 /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
+                int rowsDeleted = sunshineContentResolver.delete(
                         WeatherContract.WeatherEntry.CONTENT_URI,
                         null,
                         null);
 
+                stageStart = recordStage(metrics, stage, stageStart, 0, rowsDeleted);
+                stage = SyncMetrics.STAGE_INSERT;
+
                 /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
+                int rowsInserted = sunshineContentResolver.bulkInsert(
                         WeatherContract.WeatherEntry.CONTENT_URI,
                         weatherValues);
 
+                stageStart = recordStage(metrics, stage, stageStart, 0, rowsInserted);
+                stage = SyncMetrics.STAGE_NOTIFY;
+
+                /* The weather is now fresh, which refresh requests from the watch check for */
+                long syncTime = System.currentTimeMillis();
+                SunshinePreferences.saveLastSyncTime(context, syncTime);
+
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
                  * we should notify the user that the weather has been refreshed.
@@ -125,72 +187,123 @@ public class SunshineSyncTask {
                     NotificationUtils.notifyUserOfNewWeather(context);
                 }
 
+                stageStart = recordStage(metrics, stage, stageStart, 0, 0);
+                stage = SyncMetrics.STAGE_WEAR;
+
             /* If the code reaches this point, we have successfully performed our sync */
 
-                updateWatchFace(context, weatherValues[0]);
+                /* Most phones have no watch, and they shouldn't pay for building its update */
+                if (WearNodeDetector.isWatchFaceReachable(context)) {
+                    updateWatchFace(context, weatherValues);
+                    sendSyncTime(context, syncTime);
+                    recordStage(metrics, stage, stageStart, 0, 1);
+                } else {
+                    recordStage(metrics, stage, stageStart, 0, 0);
+                }
             }
 
         } catch (Exception e) {
+            if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                /*
+                 * Either a checkpoint threw OperationCanceledException, or aborting the HTTP
+                 * request made the fetch fail. Neither is a real failure of the stage.
+                 */
+                Log.d(TAG, "Weather sync canceled during " + SyncMetrics.getStageName(stage));
+                return;
+            }
+
             /* Server probably invalid */
-            e.printStackTrace();
+            Log.e(TAG, "Weather sync failed during " + SyncMetrics.getStageName(stage), e);
+            metrics.recordFailure(stage, e);
+        } finally {
+            metrics.persist();
+        }
+    }
+
+    private static void throwIfCanceled(@Nullable CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
         }
     }
 
-    private static void updateWatchFace(Context context, ContentValues weatherValues) {
+    /**
+     * Records the time since stageStart against a sync stage.
+     *
+     * @param metrics    SyncMetrics to record into
+     * @param stage      One of the SyncMetrics STAGE_ constants
+     * @param stageStart Value of System.nanoTime() when the stage started
+     * @param bytes      Bytes handled by the stage
+     * @param rows       Rows handled by the stage
+     * @return the current System.nanoTime(), to be used as the start of the next stage
+     */
+    private static long recordStage(SyncMetrics metrics, int stage, long stageStart,
+                                    long bytes, long rows) {
+        long now = System.nanoTime();
+        metrics.recordStage(stage, TimeUnit.NANOSECONDS.toMillis(now - stageStart), bytes, rows);
+        return now;
+    }
 
-        final String TAG = "SunshineWatchfaceUpdate";
+    private static void updateWatchFace(Context context, ContentValues[] forecastValues) {
 
+        ContentValues weatherValues = forecastValues[0];
         double highInCelsius = (double) weatherValues.get(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
         double lowInCelsius = (double) weatherValues.get(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
         int weatherId = (int) weatherValues.get(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
 
-        int weatherImageId = SunshineWeatherUtils
-                .getSmallArtResourceIdForWeatherCondition(weatherId);
-        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), weatherImageId);
-
-        Asset weatherIconAsset = SunshineWeatherUtils.createAssetFromBitmap(bitmap);
-
-        GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(Bundle connectionHint) {
-                        Log.d(TAG, "onConnected: " + connectionHint);
-                    }
-                    @Override
-                    public void onConnectionSuspended(int cause) {
-                        Log.d(TAG, "onConnectionSuspended: " + cause);
-                    }
-                })
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(ConnectionResult result) {
-                        Log.d(TAG, "onConnectionFailed: " + result);
-                    }
-                })
-                .addApi(Wearable.API)
-                .build();
-
-        mGoogleApiClient.connect();
+        /*
+         * The forecast goes in the same packed item rather than one data item per day. The watch
+         * only uses it to carry on past midnight until the next sync, so it only gets the next few
+         * days; a change further out would wake it for nothing.
+         */
+        byte[] forecast = WearForecastEncoder.encode(forecastValues, WEAR_FORECAST_DAYS);
+
+        /*
+         * Every data item we put wakes the watch up, so there's no point in sending one when
+         * nothing the watch face shows has changed. The watch shows whole degrees, so that's
+         * what the fingerprint compares, along with the packed forecast. The queue checks it
+         * against what was last sent.
+         */
+        String fingerprint =
+                getWearFingerprint(highInCelsius, lowInCelsius, weatherId, forecast);
 
         PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/weather").setUrgent();
         putDataMapReq.getDataMap().putDouble(TEMP_HIGH, highInCelsius);
         putDataMapReq.getDataMap().putDouble(TEMP_LOW, lowInCelsius);
-        putDataMapReq.getDataMap().putAsset(CONDITION, weatherIconAsset);
-        putDataMapReq.getDataMap().putLong("time",System.currentTimeMillis());
+        putDataMapReq.getDataMap().putInt(WEATHER_ID, weatherId);
+        putDataMapReq.getDataMap().putByteArray(FORECAST, forecast);
+        putDataMapReq.getDataMap().putInt(PAYLOAD_VERSION, PAYLOAD_VERSION_COMPACT);
 
         PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
-        PendingResult<DataApi.DataItemResult> pendingResult =
-                Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
-
-        pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-            @Override
-            public void onResult(@NonNull DataApi.DataItemResult result) {
-                if(result.getStatus().isSuccess()) {
-                    Log.d(TAG, "Data item set: " + result.getDataItem().getUri());
-                } else {
-                    Log.d(TAG, "Could not send data item.");
-                }
-            }
-        });
+
+        /*
+         * Several syncs can run in quick succession, so rather than writing each of them, the
+         * queue only writes the latest update once things settle down, and only if it differs
+         * from what the watch already has.
+         */
+        WatchUpdateQueue.getInstance(context).enqueue(putDataReq, fingerprint);
+    }
+
+    /**
+     * Tells the watch when we last synced, even if the weather it shows hasn't changed and so
+     * wasn't sent. The watch judges whether its weather is stale by this, rather than by when
+     * its weather last changed, so unchanged weather doesn't make it ask for refresh after
+     * refresh. It isn't urgent, so the Data Layer can hold it until it next talks to the watch.
+     */
+    private static void sendSyncTime(Context context, long syncTime) {
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create(PATH_SYNCED);
+        putDataMapReq.getDataMap().putLong(SYNCED_AT, syncTime);
+        WearableConnectionManager.getInstance(context)
+                .putDataItem(putDataMapReq.asPutDataRequest(), null);
+    }
+
+    /**
+     * Returns a fingerprint of what the watch face would show for this weather: whole degrees,
+     * the condition, the days of the forecast it gets, and the payload format it is sent in.
+     */
+    private static String getWearFingerprint(double highInCelsius, double lowInCelsius,
+                                             int weatherId, byte[] forecast) {
+        return PAYLOAD_VERSION_COMPACT + ":" + weatherId
+                + ":" + (int) highInCelsius + ":" + (int) lowInCelsius
+                + ":" + Base64.encodeToString(forecast, Base64.NO_WRAP);
     }
-}
\ No newline at end of file
+}
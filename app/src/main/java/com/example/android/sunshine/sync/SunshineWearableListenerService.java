@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.google.android.gms.wearable.CapabilityInfo;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.WearableListenerService;
+
+/**
+ * Receives events from the Data Layer while the app isn't running. This keeps WearNodeDetector's
+ * cached answer current as watches with the watch face come and go, and starts a sync when a
+ * watch asks for fresher weather and WearRefreshThrottle lets it.
+ */
+public class SunshineWearableListenerService extends WearableListenerService {
+
+    /* Sent by the watch face when the weather it has is getting old */
+    private static final String PATH_REFRESH = "/weather/refresh";
+
+    @Override
+    public void onCapabilityChanged(CapabilityInfo capabilityInfo) {
+        if (!WearNodeDetector.CAPABILITY.equals(capabilityInfo.getName())) {
+            return;
+        }
+
+        boolean reachable = !capabilityInfo.getNodes().isEmpty();
+        boolean becameReachable = WearNodeDetector.onCapabilityChanged(this, reachable);
+
+        /*
+         * Syncs skip the watch update while no watch is reachable, so when one comes back, or
+         * shows up for the first time with nothing sent to it yet, sync straight away rather than
+         * leaving it behind until the next one.
+         */
+        if (becameReachable
+                || (reachable && SunshinePreferences.getLastWearFingerprint(this) == null)) {
+            SunshineSyncUtils.startImmediateSync(this);
+        }
+    }
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (!PATH_REFRESH.equals(messageEvent.getPath())) {
+            return;
+        }
+
+        if (WearRefreshThrottle.shouldSync(this, messageEvent.getSourceNodeId())) {
+            SunshineSyncUtils.startImmediateSync(this);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.sunshine.sync.SyncStatsContract.SyncStatsEntry;
+
+/**
+ * Records how long each stage of a weather sync takes, along with how many bytes and rows it
+ * handled and how often it failed.
+ * <p>
+ * Durations go into a fixed-size histogram per stage. Bucket 0 counts durations under 1ms, and
+ * bucket i counts durations from 2^(i-1) up to 2^i milliseconds, with the last bucket catching
+ * everything longer. That keeps the memory and storage cost constant no matter how many syncs we
+ * record, at the price of percentiles only being accurate to within a factor of two, which is
+ * plenty to tell which stage regressed.
+ * <p>
+ * The metrics are saved to their own SharedPreferences file by {@link #persist()}, so they
+ * survive process death, and can be read back as a Cursor through
+ * {@link SyncStatsEntry#CONTENT_URI}, which SyncStatsProvider serves.
+ */
+public final class SyncMetrics {
+
+    /* The stages of a sync, in the order they run */
+    public static final int STAGE_FETCH = 0;
+    public static final int STAGE_PARSE = 1;
+    public static final int STAGE_DELETE = 2;
+    public static final int STAGE_INSERT = 3;
+    public static final int STAGE_NOTIFY = 4;
+    public static final int STAGE_WEAR = 5;
+
+    private static final String[] STAGE_NAMES =
+            {"fetch", "parse", "delete", "insert", "notify", "wear"};
+
+    private static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    /* 18 buckets reach 2^16ms, just over a minute, before the open-ended last bucket */
+    private static final int BUCKET_COUNT = 18;
+
+    private static final String PREFS_NAME = "sync_metrics";
+
+    private static final String KEY_BUCKETS = "_buckets";
+    private static final String KEY_COUNT = "_count";
+    private static final String KEY_FAILURES = "_failures";
+    private static final String KEY_TOTAL_MILLIS = "_total_millis";
+    private static final String KEY_MAX_MILLIS = "_max_millis";
+    private static final String KEY_TOTAL_BYTES = "_total_bytes";
+    private static final String KEY_TOTAL_ROWS = "_total_rows";
+    private static final String KEY_LAST_ERROR = "_last_error";
+
+    private static SyncMetrics sInstance;
+
+    private final SharedPreferences mPreferences;
+
+    private final long[][] mBuckets = new long[STAGE_COUNT][BUCKET_COUNT];
+    private final long[] mCount = new long[STAGE_COUNT];
+    private final long[] mFailures = new long[STAGE_COUNT];
+    private final long[] mTotalMillis = new long[STAGE_COUNT];
+    private final long[] mMaxMillis = new long[STAGE_COUNT];
+    private final long[] mTotalBytes = new long[STAGE_COUNT];
+    private final long[] mTotalRows = new long[STAGE_COUNT];
+    private final String[] mLastError = new String[STAGE_COUNT];
+
+    private SyncMetrics(Context context) {
+        mPreferences = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    /**
+     * Returns the process-wide SyncMetrics, loading any previously persisted metrics the first
+     * time it is called.
+     *
+     * @param context Used to access the SharedPreferences the metrics are saved in
+     * @return the SyncMetrics instance
+     */
+    public static synchronized SyncMetrics getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncMetrics(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the name of a stage, as used in logs and in {@link SyncStatsEntry#COLUMN_STAGE}.
+     *
+     * @param stage One of the STAGE_ constants
+     * @return the name of the stage
+     */
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Records one successful run of a stage.
+     *
+     * @param stage          One of the STAGE_ constants
+     * @param durationMillis How long the stage took
+     * @param bytes          How many bytes the stage handled, or 0 if not relevant
+     * @param rows           How many rows the stage handled, or 0 if not relevant
+     */
+    public synchronized void recordStage(int stage, long durationMillis, long bytes, long rows) {
+        mBuckets[stage][getBucket(durationMillis)]++;
+        mCount[stage]++;
+        mTotalMillis[stage] += durationMillis;
+        mMaxMillis[stage] = Math.max(mMaxMillis[stage], durationMillis);
+        mTotalBytes[stage] += bytes;
+        mTotalRows[stage] += rows;
+    }
+
+    /**
+     * Records that a stage failed.
+     *
+     * @param stage One of the STAGE_ constants
+     * @param error What went wrong
+     */
+    public synchronized void recordFailure(int stage, Throwable error) {
+        recordFailure(stage, error.toString());
+    }
+
+    /**
+     * Records that a stage failed without throwing, such as a parse that found no weather.
+     *
+     * @param stage One of the STAGE_ constants
+     * @param error What went wrong
+     */
+    public synchronized void recordFailure(int stage, String error) {
+        mFailures[stage]++;
+        mLastError[stage] = error;
+    }
+
+    /**
+     * Returns an estimate of a percentile of a stage's duration. Since the histogram only knows
+     * which bucket a duration fell into, this is the upper bound of that bucket.
+     *
+     * @param stage      One of the STAGE_ constants
+     * @param percentile Percentile between 0 and 100
+     * @return the estimated percentile in milliseconds, or 0 if the stage never ran
+     */
+    public synchronized long getPercentileMillis(int stage, int percentile) {
+        long count = mCount[stage];
+        if (count == 0) return 0;
+
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mBuckets[stage][bucket];
+            if (seen >= rank && seen > 0) {
+                /* The open-ended last bucket has no upper bound, so report the maximum instead */
+                return bucket == BUCKET_COUNT - 1
+                        ? mMaxMillis[stage]
+                        : Math.min(1L << bucket, mMaxMillis[stage]);
+            }
+        }
+        return mMaxMillis[stage];
+    }
+
+    /**
+     * Saves the metrics so that they survive process death. This is done once at the end of a
+     * sync rather than after every stage to keep disk writes down.
+     */
+    public synchronized void persist() {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            String name = STAGE_NAMES[stage];
+
+            StringBuilder buckets = new StringBuilder();
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                if (bucket > 0) buckets.append(',');
+                buckets.append(mBuckets[stage][bucket]);
+            }
+
+            editor.putString(name + KEY_BUCKETS, buckets.toString());
+            editor.putLong(name + KEY_COUNT, mCount[stage]);
+            editor.putLong(name + KEY_FAILURES, mFailures[stage]);
+            editor.putLong(name + KEY_TOTAL_MILLIS, mTotalMillis[stage]);
+            editor.putLong(name + KEY_MAX_MILLIS, mMaxMillis[stage]);
+            editor.putLong(name + KEY_TOTAL_BYTES, mTotalBytes[stage]);
+            editor.putLong(name + KEY_TOTAL_ROWS, mTotalRows[stage]);
+            editor.putString(name + KEY_LAST_ERROR, mLastError[stage]);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Clears every recorded metric, both in memory and on disk.
+     */
+    @VisibleForTesting
+    public synchronized void reset() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                mBuckets[stage][bucket] = 0;
+            }
+            mCount[stage] = 0;
+            mFailures[stage] = 0;
+            mTotalMillis[stage] = 0;
+            mMaxMillis[stage] = 0;
+            mTotalBytes[stage] = 0;
+            mTotalRows[stage] = 0;
+            mLastError[stage] = null;
+        }
+        mPreferences.edit().clear().apply();
+    }
+
+    /**
+     * Returns a summary of the metrics with one row per stage, using the columns defined in
+     * {@link SyncStatsEntry}.
+     *
+     * @return a Cursor summarizing every stage
+     */
+    public synchronized Cursor getSummaryCursor() {
+        MatrixCursor cursor = new MatrixCursor(SyncStatsEntry.COLUMNS, STAGE_COUNT);
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            cursor.newRow()
+                    .add(STAGE_NAMES[stage])
+                    .add(mCount[stage])
+                    .add(mFailures[stage])
+                    .add(mCount[stage] == 0 ? 0 : mTotalMillis[stage] / mCount[stage])
+                    .add(getPercentileMillis(stage, 50))
+                    .add(getPercentileMillis(stage, 90))
+                    .add(getPercentileMillis(stage, 99))
+                    .add(mMaxMillis[stage])
+                    .add(mTotalBytes[stage])
+                    .add(mTotalRows[stage])
+                    .add(mLastError[stage]);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return a one line summary of every stage, suitable for logging
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder summary = new StringBuilder("SyncMetrics{");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            if (stage > 0) summary.append(", ");
+            summary.append(STAGE_NAMES[stage])
+                    .append(": n=").append(mCount[stage])
+                    .append(" failed=").append(mFailures[stage])
+                    .append(" p50=").append(getPercentileMillis(stage, 50)).append("ms")
+                    .append(" p99=").append(getPercentileMillis(stage, 99)).append("ms");
+        }
+        return summary.append('}').toString();
+    }
+
+    private void load() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            String name = STAGE_NAMES[stage];
+
+            String buckets = mPreferences.getString(name + KEY_BUCKETS, null);
+            if (buckets != null) {
+                String[] counts = buckets.split(",");
+                /* Tolerate a different bucket count from an older version by truncating */
+                for (int bucket = 0; bucket < Math.min(counts.length, BUCKET_COUNT); bucket++) {
+                    mBuckets[stage][bucket] = Long.parseLong(counts[bucket]);
+                }
+            }
+
+            mCount[stage] = mPreferences.getLong(name + KEY_COUNT, 0);
+            mFailures[stage] = mPreferences.getLong(name + KEY_FAILURES, 0);
+            mTotalMillis[stage] = mPreferences.getLong(name + KEY_TOTAL_MILLIS, 0);
+            mMaxMillis[stage] = mPreferences.getLong(name + KEY_MAX_MILLIS, 0);
+            mTotalBytes[stage] = mPreferences.getLong(name + KEY_TOTAL_BYTES, 0);
+            mTotalRows[stage] = mPreferences.getLong(name + KEY_TOTAL_ROWS, 0);
+            mLastError[stage] = mPreferences.getString(name + KEY_LAST_ERROR, null);
+        }
+    }
+
+    @VisibleForTesting
+    static int getBucket(long durationMillis) {
+        if (durationMillis < 1) return 0;
+        /* Number of bits needed to hold the duration, so 1ms -> 1, 2-3ms -> 2, 4-7ms -> 3 */
+        int bucket = 64 - Long.numberOfLeadingZeros(durationMillis);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+}
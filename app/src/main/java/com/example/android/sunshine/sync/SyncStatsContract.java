@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.net.Uri;
+
+/**
+ * Defines the URI and columns of the sync statistics summary served by SyncStatsProvider. The
+ * statistics belong to the sync code rather than the weather database, so they have their own
+ * authority instead of a path under WeatherContract's.
+ */
+public class SyncStatsContract {
+
+    /* Authority of SyncStatsProvider, as declared in the manifest */
+    public static final String CONTENT_AUTHORITY = "com.example.android.sunshine.syncstats";
+
+    public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
+
+    /* Path for the read-only summary of how long each stage of a weather sync takes */
+    public static final String PATH_SYNC_STATS = "sync_stats";
+
+    /*
+     * Inner class that defines the columns of the sync statistics summary. This isn't a table;
+     * the rows are built on request from the histograms kept by SyncMetrics, one row per stage.
+     */
+    public static final class SyncStatsEntry {
+
+        /* The CONTENT_URI used to query the sync statistics from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC_STATS)
+                .build();
+
+        /* Name of the sync stage, such as "fetch" or "insert" */
+        public static final String COLUMN_STAGE = "stage";
+
+        /* Number of times the stage completed, and number of times it failed */
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_FAILURES = "failures";
+
+        /*
+         * Durations in milliseconds. Percentiles are estimated from a power-of-two histogram, so
+         * they are upper bounds that are accurate to within a factor of two.
+         */
+        public static final String COLUMN_MEAN_MILLIS = "mean_millis";
+        public static final String COLUMN_P50_MILLIS = "p50_millis";
+        public static final String COLUMN_P90_MILLIS = "p90_millis";
+        public static final String COLUMN_P99_MILLIS = "p99_millis";
+        public static final String COLUMN_MAX_MILLIS = "max_millis";
+
+        /* Totals of bytes and rows the stage has handled over every sync */
+        public static final String COLUMN_TOTAL_BYTES = "total_bytes";
+        public static final String COLUMN_TOTAL_ROWS = "total_rows";
+
+        /* Description of the last error the stage failed with, or null */
+        public static final String COLUMN_LAST_ERROR = "last_error";
+
+        /* Every column, in the order they appear in the summary Cursor */
+        public static final String[] COLUMNS = {
+                COLUMN_STAGE,
+                COLUMN_COUNT,
+                COLUMN_FAILURES,
+                COLUMN_MEAN_MILLIS,
+                COLUMN_P50_MILLIS,
+                COLUMN_P90_MILLIS,
+                COLUMN_P99_MILLIS,
+                COLUMN_MAX_MILLIS,
+                COLUMN_TOTAL_BYTES,
+                COLUMN_TOTAL_ROWS,
+                COLUMN_LAST_ERROR,
+        };
+    }
+}
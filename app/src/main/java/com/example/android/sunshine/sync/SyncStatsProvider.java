@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+/**
+ * Serves the summary of the sync statistics at
+ * {@link SyncStatsContract.SyncStatsEntry#CONTENT_URI}, so that they can be read back in the
+ * field, e.g. with adb shell content query. It is read-only.
+ * <p>
+ * The statistics don't live in a database. SyncMetrics keeps them in memory, backed by
+ * SharedPreferences, and builds a Cursor with one row per sync stage.
+ */
+public class SyncStatsProvider extends ContentProvider {
+
+    private static final int CODE_SYNC_STATS = 200;
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        /* This URI is content://com.example.android.sunshine.syncstats/sync_stats/ */
+        sUriMatcher.addURI(SyncStatsContract.CONTENT_AUTHORITY,
+                SyncStatsContract.PATH_SYNC_STATS, CODE_SYNC_STATS);
+    }
+
+    @Override
+    public boolean onCreate() {
+        /* SyncMetrics loads itself on the first query, so startup isn't delayed */
+        return true;
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        if (sUriMatcher.match(uri) != CODE_SYNC_STATS) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        Cursor cursor = SyncMetrics.getInstance(getContext()).getSummaryCursor();
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        throw new RuntimeException("We are not implementing getType in Sunshine.");
+    }
+
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("The sync statistics are read-only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The sync statistics are read-only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
+        throw new UnsupportedOperationException("The sync statistics are read-only");
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+
+/**
+ * Coalesces watch face updates so that a burst of syncs turns into a single Data Layer write.
+ * <p>
+ * Syncs often come in quick succession, for example the immediate sync at startup followed by
+ * another one when the user changes their location or units. Rather than each of them putting an
+ * urgent data item, every update replaces whatever is still pending, and only the latest one is
+ * written once no newer update has arrived for {@link #DEBOUNCE_MILLIS}. Writes are also spaced
+ * at least {@link #MIN_WRITE_INTERVAL_MILLIS} apart, which caps how often we wake the watch no
+ * matter how many syncs run.
+ * <p>
+ * If nothing has ever been sent to the watch, for example right after pairing, there's nothing
+ * on the watch to coalesce with, so the first update is written straight away.
+ * <p>
+ * The sync job has usually finished by the time the write is due, so a timed wake lock is held
+ * from the first pending update until the write completes. Without it the device could sleep,
+ * and Handler delays don't count deep sleep, so the write could be late by hours. A pending
+ * update lives only in memory. If the process dies before it is written anyway, its fingerprint
+ * was never saved, so the next sync sends it again.
+ */
+final class WatchUpdateQueue {
+
+    private static final String TAG = WatchUpdateQueue.class.getSimpleName();
+
+    /* How long to wait for a newer update before writing the pending one */
+    private static final long DEBOUNCE_MILLIS = 5 * 1000;
+
+    /* Upper bound on how long a steady stream of updates can keep pushing the write back */
+    private static final long MAX_DEBOUNCE_MILLIS = 15 * 1000;
+
+    /* Minimum time between two writes, so at most three writes a minute */
+    private static final long MIN_WRITE_INTERVAL_MILLIS = 20 * 1000;
+
+    /* How long the wake lock outlasts the scheduled write, to let the Data Layer accept it */
+    private static final long WRITE_WAKE_LOCK_MILLIS = 30 * 1000;
+
+    private static WatchUpdateQueue sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final PowerManager.WakeLock mWakeLock;
+
+    private PutDataRequest mPendingRequest;
+    private String mPendingFingerprint;
+
+    /* SystemClock.elapsedRealtime() of the first update since the last write, or 0 if none */
+    private long mFirstPendingTime;
+
+    /* SystemClock.elapsedRealtime() of the last write, or 0 if this process hasn't written */
+    private long mLastWriteTime;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private WatchUpdateQueue(Context context) {
+        mContext = context.getApplicationContext();
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        /* Acquiring again only moves the timeout, and one release ends it */
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    static synchronized WatchUpdateQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WatchUpdateQueue(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a watch face update, replacing any update that hasn't been written yet.
+     *
+     * @param request     The data item to write
+     * @param fingerprint Fingerprint of the data item, saved with
+     *                    {@link SunshinePreferences#saveLastWearFingerprint} once it is written
+     */
+    synchronized void enqueue(@NonNull PutDataRequest request, @NonNull String fingerprint) {
+        /*
+         * If the watch already shows this, there's nothing to write, and whatever was pending
+         * is older than this update, so it's dropped too.
+         */
+        if (fingerprint.equals(SunshinePreferences.getLastWearFingerprint(mContext))) {
+            Log.d(TAG, "Watch face weather unchanged, not sending " + fingerprint);
+            mHandler.removeCallbacks(mFlush);
+            mPendingRequest = null;
+            mPendingFingerprint = null;
+            mFirstPendingTime = 0;
+            releaseWakeLock();
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+
+        mPendingRequest = request;
+        mPendingFingerprint = fingerprint;
+        if (mFirstPendingTime == 0) {
+            mFirstPendingTime = now;
+        }
+
+        mHandler.removeCallbacks(mFlush);
+
+        if (mLastWriteTime == 0 && SunshinePreferences.getLastWearFingerprint(mContext) == null) {
+            Log.d(TAG, "Nothing sent to the watch yet, writing without debounce");
+            mWakeLock.acquire(WRITE_WAKE_LOCK_MILLIS);
+            mHandler.post(mFlush);
+            return;
+        }
+
+        long writeTime = Math.min(now + DEBOUNCE_MILLIS, mFirstPendingTime + MAX_DEBOUNCE_MILLIS);
+        if (mLastWriteTime != 0) {
+            writeTime = Math.max(writeTime, mLastWriteTime + MIN_WRITE_INTERVAL_MILLIS);
+        }
+        long delay = Math.max(0, writeTime - now);
+        mWakeLock.acquire(delay + WRITE_WAKE_LOCK_MILLIS);
+        mHandler.postDelayed(mFlush, delay);
+    }
+
+    private synchronized void flush() {
+        if (mPendingRequest == null) {
+            releaseWakeLock();
+            return;
+        }
+
+        final String fingerprint = mPendingFingerprint;
+        PutDataRequest request = mPendingRequest;
+        mPendingRequest = null;
+        mPendingFingerprint = null;
+        mFirstPendingTime = 0;
+
+        /* The updates we coalesced may have ended up back where the watch already is */
+        if (fingerprint.equals(SunshinePreferences.getLastWearFingerprint(mContext))) {
+            Log.d(TAG, "Watch face weather unchanged, not sending " + fingerprint);
+            releaseWakeLock();
+            return;
+        }
+
+        mLastWriteTime = SystemClock.elapsedRealtime();
+
+        WearableConnectionManager.getInstance(mContext).putDataItem(request,
+                new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult result) {
+                        if (result.getStatus().isSuccess()) {
+                            Log.d(TAG, "Data item set: " + result.getDataItem().getUri());
+                            SunshinePreferences.saveLastWearFingerprint(mContext, fingerprint);
+                        } else {
+                            Log.d(TAG, "Could not send data item.");
+                        }
+                        releaseWakeLockIfIdle();
+                    }
+                });
+    }
+
+    /* A newer update may have been queued while the write was in flight, and still needs it */
+    private synchronized void releaseWakeLockIfIdle() {
+        if (mPendingRequest == null) {
+            releaseWakeLock();
+        }
+    }
+
+    private void releaseWakeLock() {
+        if (mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+    }
+}
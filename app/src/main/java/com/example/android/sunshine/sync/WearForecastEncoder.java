@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs a multi-day forecast into one small byte array that fits in a single watch data item.
+ * <p>
+ * The format is big-endian and laid out column by column, so the watch can read each column
+ * straight into a primitive array:
+ * <pre>
+ *   byte    format version, currently {@link #FORMAT_VERSION}
+ *   short   number of days, n
+ *   long[n] dates, normalized UTC midnight in milliseconds
+ *   short[n] highs, whole degrees Celsius
+ *   short[n] lows, whole degrees Celsius
+ *   short[n] OpenWeatherMap weather ids
+ * </pre>
+ * That is 2 + 1 + 14n bytes; even a two week forecast takes under 200 bytes. The watch face decodes
+ * this in WeatherForecast, which has to be kept in sync with this class.
+ */
+final class WearForecastEncoder {
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 1 + 2;
+    private static final int BYTES_PER_DAY = 8 + 2 + 2 + 2;
+
+    private WearForecastEncoder() {
+    }
+
+    /**
+     * @param weatherValues The forecast as parsed by OpenWeatherJsonUtils, one day per entry
+     * @param maxDays       How many days to pack at most, starting from the first
+     * @return the packed forecast
+     */
+    static byte[] encode(ContentValues[] weatherValues, int maxDays) {
+        int days = Math.min(Math.min(weatherValues.length, maxDays), Short.MAX_VALUE);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + days * BYTES_PER_DAY);
+
+        buffer.put(FORMAT_VERSION);
+        buffer.putShort((short) days);
+
+        for (int i = 0; i < days; i++) {
+            buffer.putLong(weatherValues[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+
+        /*
+         * The watch only shows whole degrees, truncated just as the face and the sync's
+         * fingerprint do, so a day reads the same everywhere. It also keeps the bytes identical
+         * across syncs that only changed a fraction of a degree, so they can be suppressed.
+         */
+        for (int i = 0; i < days; i++) {
+            buffer.putShort((short) weatherValues[i]
+                    .getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP).intValue());
+        }
+        for (int i = 0; i < days; i++) {
+            buffer.putShort((short) weatherValues[i]
+                    .getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP).intValue());
+        }
+        for (int i = 0; i < days; i++) {
+            buffer.putShort(weatherValues[i]
+                    .getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID).shortValue());
+        }
+
+        return buffer.array();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Node;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out whether there is a watch running the Sunshine watch face that we can reach, so that
+ * syncs on phones without one skip the watch update entirely.
+ * <p>
+ * The first check is whether the Android Wear companion app, or its Chinese build, is installed
+ * at all, which only asks the PackageManager and rules out most phones. If it is installed, we ask
+ * the CapabilityApi for reachable nodes declaring {@link #CAPABILITY}. That answer is cached for
+ * {@link #CACHE_TTL_MILLIS} and kept up to date in between by SunshineWearableListenerService,
+ * which hears about capability changes as they happen.
+ */
+final class WearNodeDetector {
+
+    private static final String TAG = WearNodeDetector.class.getSimpleName();
+
+    /* Declared by the watch face in its res/values/wear.xml */
+    static final String CAPABILITY = "sunshine_watch_face";
+
+    /* The Android Wear companion app, and its build for China, which has its own package */
+    private static final String[] WEAR_COMPANION_PACKAGES = {
+            "com.google.android.wearable.app",
+            "com.google.android.wearable.app.cn",
+    };
+
+    private static final long CACHE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long QUERY_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final String PREFS_NAME = "wear_nodes";
+    private static final String KEY_REACHABLE = "reachable";
+    private static final String KEY_CHECKED_AT = "checked_at";
+
+    private WearNodeDetector() {
+    }
+
+    /**
+     * Returns whether a watch with the Sunshine watch face is reachable. This may block while
+     * the CapabilityApi is queried, so it must not be called on the main thread.
+     *
+     * @param context Used to access the PackageManager and the cached answer
+     * @return true if a watch face node is reachable
+     */
+    static boolean isWatchFaceReachable(Context context) {
+        if (!isCompanionAppInstalled(context)) {
+            return false;
+        }
+
+        SharedPreferences preferences = getPreferences(context);
+        long now = System.currentTimeMillis();
+        long checkedAt = preferences.getLong(KEY_CHECKED_AT, 0);
+        if (checkedAt <= now && now - checkedAt < CACHE_TTL_MILLIS) {
+            return preferences.getBoolean(KEY_REACHABLE, false);
+        }
+
+        Set<Node> nodes = WearableConnectionManager.getInstance(context)
+                .getReachableNodes(CAPABILITY, QUERY_TIMEOUT_MILLIS);
+        if (nodes == null) {
+            /* Don't cache this; it says nothing about whether a watch is around */
+            return false;
+        }
+
+        boolean reachable = !nodes.isEmpty();
+        Log.d(TAG, "Watch face nodes reachable: " + nodes.size());
+        saveReachable(context, reachable);
+        return reachable;
+    }
+
+    /**
+     * Records a capability change reported by the Data Layer, so that the next sync doesn't
+     * have to query for it.
+     *
+     * @param context   Used to access the cached answer
+     * @param reachable Whether any watch face node is now reachable
+     * @return true if the watch face has just become reachable, as far as the cached answer
+     * knows, which means syncs have been skipping the watch update
+     */
+    static boolean onCapabilityChanged(Context context, boolean reachable) {
+        Log.d(TAG, "Watch face reachable changed to " + reachable);
+        boolean wasReachable = getPreferences(context).getBoolean(KEY_REACHABLE, false);
+        saveReachable(context, reachable);
+        return reachable && !wasReachable;
+    }
+
+    private static boolean isCompanionAppInstalled(Context context) {
+        PackageManager packageManager = context.getPackageManager();
+        for (String packageName : WEAR_COMPANION_PACKAGES) {
+            try {
+                packageManager.getPackageInfo(packageName, 0);
+                return true;
+            } catch (PackageManager.NameNotFoundException e) {
+                /* Try the next one */
+            }
+        }
+        return false;
+    }
+
+    private static void saveReachable(Context context, boolean reachable) {
+        getPreferences(context).edit()
+                .putBoolean(KEY_REACHABLE, reachable)
+                .putLong(KEY_CHECKED_AT, System.currentTimeMillis())
+                .apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a refresh request from a watch should start a sync.
+ * <p>
+ * A watch asks for a refresh when the weather it has is getting old. Two things keep those
+ * requests from turning into a sync every few minutes. Each watch gets at most one sync per
+ * {@link #NODE_INTERVAL_MILLIS}, keyed by its node id, so one misbehaving watch can't drain the
+ * phone. And no request syncs if the last sync finished less than {@link #FRESH_MILLIS} ago,
+ * since the watch already has that data or will get it from the Data Layer.
+ */
+final class WearRefreshThrottle {
+
+    private static final String TAG = WearRefreshThrottle.class.getSimpleName();
+
+    private static final long NODE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long FRESH_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /* Holds when each node last had a request accepted, keyed by node id */
+    private static final String PREFS_NAME = "wear_refresh";
+
+    private WearRefreshThrottle() {
+    }
+
+    /**
+     * Returns whether a refresh requested by a node should start a sync, and if so, records the
+     * request against the node.
+     *
+     * @param context Used to access SharedPreferences
+     * @param nodeId  The node the request came from
+     * @return true if a sync should be started
+     */
+    static synchronized boolean shouldSync(Context context, String nodeId) {
+        long now = System.currentTimeMillis();
+
+        long lastSync = SunshinePreferences.getLastSyncTimeInMillis(context);
+        if (lastSync <= now && now - lastSync < FRESH_MILLIS) {
+            Log.d(TAG, "Weather is fresh, ignoring refresh from " + nodeId);
+            return false;
+        }
+
+        SharedPreferences preferences = getPreferences(context);
+        long lastRequest = preferences.getLong(nodeId, 0);
+        if (lastRequest <= now && now - lastRequest < NODE_INTERVAL_MILLIS) {
+            Log.d(TAG, "Throttling refresh from " + nodeId);
+            return false;
+        }
+
+        preferences.edit().putLong(nodeId, now).apply();
+        return true;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.wearable.CapabilityApi;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the one GoogleApiClient the app uses to talk to the Wearable Data Layer.
+ * <p>
+ * The client is connected lazily the first time a data item is sent and then reused, so a sync
+ * doesn't pay for binding to Google Play services each time. Data items sent before the client is
+ * connected are queued and flushed from onConnected, rather than racing the connection. Once
+ * nothing has been sent for {@link #IDLE_TIMEOUT_MILLIS}, the client is disconnected so that we
+ * don't hold the binding between syncs, which are hours apart.
+ * <p>
+ * All GoogleApiClient callbacks arrive on the main thread, while data items are usually sent from
+ * the sync thread, so every access to the state here is synchronized.
+ */
+public final class WearableConnectionManager
+        implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    private static final String TAG = WearableConnectionManager.class.getSimpleName();
+
+    /* How long the client stays connected after the last data item has been delivered */
+    private static final long IDLE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static WearableConnectionManager sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /*
+     * Data items waiting for the connection, keyed by path. A newer item on a path replaces the
+     * older one on the Data Layer anyway, so we only keep the latest one for each path.
+     */
+    private final Map<String, PutDataRequest> mPendingRequests =
+            new LinkedHashMap<String, PutDataRequest>();
+
+    /* Callbacks for queued data items, keyed by the same path as mPendingRequests */
+    private final Map<String, ResultCallback<DataApi.DataItemResult>> mPendingCallbacks =
+            new LinkedHashMap<String, ResultCallback<DataApi.DataItemResult>>();
+
+    /* Number of data items handed to the Data Layer whose result hasn't come back yet */
+    private int mInFlightCount;
+
+    private final Runnable mIdleDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            disconnectIfIdle();
+        }
+    };
+
+    private WearableConnectionManager(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * Returns the process-wide WearableConnectionManager. This doesn't connect anything; the
+     * connection is only made once there is something to send.
+     *
+     * @param context Used to build the GoogleApiClient
+     * @return the WearableConnectionManager instance
+     */
+    public static synchronized WearableConnectionManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearableConnectionManager(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sends a data item to the Data Layer, connecting first if needed. This returns straight away;
+     * the item is delivered once the client is connected.
+     *
+     * @param request  The data item to send
+     * @param callback Called on the main thread with the result, or null if not interested. It is
+     *                 not called if the connection fails and the item is dropped.
+     */
+    public synchronized void putDataItem(@NonNull PutDataRequest request,
+            @Nullable ResultCallback<DataApi.DataItemResult> callback) {
+        mHandler.removeCallbacks(mIdleDisconnect);
+
+        if (mGoogleApiClient.isConnected()) {
+            send(request, callback);
+            return;
+        }
+
+        mPendingRequests.put(request.getUri().getPath(), request);
+        mPendingCallbacks.put(request.getUri().getPath(), callback);
+
+        if (!mGoogleApiClient.isConnecting()) {
+            Log.d(TAG, "Connecting to the Wearable API");
+            mGoogleApiClient.connect();
+        }
+    }
+
+    /**
+     * Returns the nodes that advertise a capability and are currently reachable, connecting
+     * first if needed. This blocks, so it must not be called on the main thread.
+     *
+     * @param capability    Capability the nodes declare in their android_wear_capabilities
+     * @param timeoutMillis How long to wait for the connection, and then for the answer
+     * @return the reachable nodes, or null if the Wearable API couldn't be reached
+     */
+    @Nullable
+    public Set<Node> getReachableNodes(String capability, long timeoutMillis) {
+        /*
+         * This isn't synchronized, since blocking here would also block the connection
+         * callbacks on the main thread.
+         */
+        mHandler.removeCallbacks(mIdleDisconnect);
+        try {
+            if (!mGoogleApiClient.isConnected()) {
+                ConnectionResult connectionResult =
+                        mGoogleApiClient.blockingConnect(timeoutMillis, TimeUnit.MILLISECONDS);
+                if (!connectionResult.isSuccess()) {
+                    Log.d(TAG, "Could not connect to query nodes: " + connectionResult);
+                    return null;
+                }
+            }
+
+            CapabilityApi.GetCapabilityResult result = Wearable.CapabilityApi
+                    .getCapability(mGoogleApiClient, capability, CapabilityApi.FILTER_REACHABLE)
+                    .await(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (!result.getStatus().isSuccess()) {
+                Log.d(TAG, "Could not query nodes: " + result.getStatus());
+                return null;
+            }
+            return result.getCapability().getNodes();
+        } finally {
+            synchronized (this) {
+                scheduleIdleDisconnect();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onConnected(@Nullable Bundle connectionHint) {
+        Log.d(TAG, "onConnected, sending " + mPendingRequests.size() + " queued data items");
+
+        List<String> paths = new ArrayList<String>(mPendingRequests.keySet());
+        for (String path : paths) {
+            send(mPendingRequests.get(path), mPendingCallbacks.get(path));
+        }
+        mPendingRequests.clear();
+        mPendingCallbacks.clear();
+
+        scheduleIdleDisconnect();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        /* GoogleApiClient reconnects by itself, and anything queued is sent from onConnected */
+        Log.d(TAG, "onConnectionSuspended: " + cause);
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        /*
+         * There is nothing we can do about a failure from a background sync, typically because
+         * Android Wear isn't installed. Drop what we queued; the next sync will try again.
+         */
+        List<ResultCallback<DataApi.DataItemResult>> callbacks;
+        synchronized (this) {
+            Log.d(TAG, "onConnectionFailed: " + result + ", dropping "
+                    + mPendingRequests.size() + " data items");
+            callbacks = new ArrayList<ResultCallback<DataApi.DataItemResult>>(
+                    mPendingCallbacks.values());
+            mPendingRequests.clear();
+            mPendingCallbacks.clear();
+        }
+
+        /*
+         * Callers wait on these, e.g. WatchUpdateQueue holds a wake lock until it hears back.
+         * They're called outside the lock, since callers may hold their own lock while calling
+         * putDataItem.
+         */
+        final Status status = new Status(CommonStatusCodes.API_NOT_CONNECTED);
+        DataApi.DataItemResult failed = new DataApi.DataItemResult() {
+            @Override
+            public DataItem getDataItem() {
+                return null;
+            }
+
+            @Override
+            public Status getStatus() {
+                return status;
+            }
+        };
+        for (ResultCallback<DataApi.DataItemResult> callback : callbacks) {
+            if (callback != null) {
+                callback.onResult(failed);
+            }
+        }
+    }
+
+    private void send(PutDataRequest request,
+            @Nullable final ResultCallback<DataApi.DataItemResult> callback) {
+        mInFlightCount++;
+        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult result) {
+                        onSendFinished();
+                        if (callback != null) {
+                            callback.onResult(result);
+                        }
+                    }
+                });
+    }
+
+    private synchronized void onSendFinished() {
+        mInFlightCount--;
+        scheduleIdleDisconnect();
+    }
+
+    private void scheduleIdleDisconnect() {
+        mHandler.removeCallbacks(mIdleDisconnect);
+        mHandler.postDelayed(mIdleDisconnect, IDLE_TIMEOUT_MILLIS);
+    }
+
+    private synchronized void disconnectIfIdle() {
+        if (mInFlightCount > 0 || !mPendingRequests.isEmpty()) {
+            return;
+        }
+        if (mGoogleApiClient.isConnected() || mGoogleApiClient.isConnecting()) {
+            Log.d(TAG, "Idle, disconnecting from the Wearable API");
+            mGoogleApiClient.disconnect();
+        }
+    }
+}
@@ -5,50 +5,379 @@ import android.content.Context;
 
 import com.example.android.sunshine.data.WeatherContract;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
+/**
+ * Generates fake weather data, either to fill the database while developing or to drive scale
+ * tests of the ContentProvider and the JSON parser.
+ * <p>
+ * Everything is deterministic: the same seed always produces the same data, and every row is
+ * derived from the seed and its own position alone. Only the dates inserted by
+ * {@link #insertFakeData(Context)} depend on the day it runs. That
+ * means a large data set can be generated in batches of any size (see
+ * {@link #createWeatherContentValues(long, long, int, int, int, int)}) without ever holding all
+ * of it in memory, and the batches will match what a single call would have produced.
+ * <p>
+ * The values are shaped to look like real weather rather than uniform noise. Temperatures follow
+ * the latitude and the season of the location, highs and lows are a plausible daily range apart,
+ * hourly entries follow a daily cycle, and conditions are drawn from every weather id that
+ * {@link SunshineWeatherUtils} knows about with clear and cloudy days being the most common.
+ */
 public class FakeDataUtils {
 
-    private static int [] weatherIDs = {200,300,500,711,900,962};
+    private static final long HOUR_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /* Seed used by insertFakeData(Context), so that developers all see the same weather */
+    public static final long DEFAULT_SEED = 27;
+
+    /*
+     * Weather condition ids grouped the way OpenWeatherMap groups them. Each group is picked with
+     * the weight at the same index in CONDITION_GROUP_WEIGHTS, then an id is picked uniformly
+     * from within the group.
+     */
+    private static final int[][] CONDITION_GROUPS = {
+            /* Clear */
+            {800},
+            /* Clouds */
+            {801, 802, 803, 804},
+            /* Rain */
+            {500, 501, 502, 503, 504, 520, 521, 522, 531},
+            /* Drizzle */
+            {300, 301, 302, 310, 311, 312, 313, 314, 321},
+            /* Thunderstorm */
+            {200, 201, 202, 210, 211, 212, 221, 230, 231, 232},
+            /* Snow */
+            {511, 600, 601, 602, 611, 612, 615, 616, 620, 621, 622},
+            /* Atmosphere */
+            {701, 711, 721, 731, 741, 751, 761, 762, 771, 781},
+            /* Extreme and additional */
+            {900, 901, 902, 903, 904, 905, 906, 951, 952, 953, 954, 955, 956, 957, 958, 959,
+                    960, 961, 962},
+    };
+
+    private static final int[] CONDITION_GROUP_WEIGHTS = {30, 28, 14, 6, 4, 5, 8, 5};
+
+    private static final int GROUP_RAIN = 2;
+    private static final int GROUP_DRIZZLE = 3;
+    private static final int GROUP_THUNDERSTORM = 4;
+    private static final int GROUP_SNOW = 5;
+    private static final int GROUP_EXTREME = 7;
+
+    /* Below this daily mean temperature (°C), rain and drizzle fall as snow instead */
+    private static final double SNOW_THRESHOLD_CELSIUS = 1.0;
+
+    private static final int TOTAL_CONDITION_WEIGHT;
+
+    static {
+        int total = 0;
+        for (int weight : CONDITION_GROUP_WEIGHTS) {
+            total += weight;
+        }
+        TOTAL_CONDITION_WEIGHT = total;
+    }
+
+    /* Salts that keep the random streams for locations, days and hours independent */
+    private static final long LOCATION_SALT = 0x4c4f434154494f4eL;
+    private static final long DAY_SALT = 0x4441595341544c54L;
+    private static final long HOUR_SALT = 0x484f555253414c54L;
 
     /**
-     * Creates a single ContentValues object with random weather data for the provided date
-     * @param date a normalized date
-     * @return ContentValues object filled with random weather data
+     * The weather for a single day at a single location, in the units Sunshine stores.
      */
-    private static ContentValues createTestWeatherContentValues(long date) {
-        ContentValues testWeatherValues = new ContentValues();
-        testWeatherValues.put(WeatherEntry.COLUMN_DATE, date);
-        testWeatherValues.put(WeatherEntry.COLUMN_DEGREES, Math.random()*2);
-        testWeatherValues.put(WeatherEntry.COLUMN_HUMIDITY, Math.random()*100);
-        testWeatherValues.put(WeatherEntry.COLUMN_PRESSURE, 870 + Math.random()*100);
-        int maxTemp = (int)(Math.random()*100);
-        testWeatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
-        testWeatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, maxTemp - (int) (Math.random()*10));
-        testWeatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, Math.random()*10);
-        testWeatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherIDs[(int)(Math.random()*10)%5]);
-        return testWeatherValues;
+    private static class FakeDay {
+        double high;
+        double low;
+        int weatherId;
+        double humidity;
+        double pressure;
+        double windSpeed;
+        double degrees;
     }
 
     /**
-     * Creates random weather data for 7 days starting today
+     * Creates random weather data for 7 days starting today, from {@link #DEFAULT_SEED}
      * @param context
      */
     public static void insertFakeData(Context context) {
+        insertFakeData(context, DEFAULT_SEED);
+    }
+
+    /**
+     * Creates random weather data for 7 days starting today
+     * @param context
+     * @param seed    Seed for the data, so that the same seed gives the same weather
+     */
+    public static void insertFakeData(Context context, long seed) {
         //Get today's normalized date
         long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-        List<ContentValues> fakeValues = new ArrayList<ContentValues>();
-        //loop over 7 days starting today onwards
-        for(int i=0; i<7; i++) {
-            fakeValues.add(FakeDataUtils.createTestWeatherContentValues(today + TimeUnit.DAYS.toMillis(i)));
-        }
+        ContentValues[] fakeValues = createWeatherContentValues(seed, today, 1, 7, 0, 7);
         // Bulk Insert our new weather data into Sunshine's Database
         context.getContentResolver().bulkInsert(
                 WeatherContract.WeatherEntry.CONTENT_URI,
-                fakeValues.toArray(new ContentValues[7]));
+                fakeValues);
+    }
+
+    /**
+     * Returns the coordinates of one of the fake locations for a seed. Latitudes are kept between
+     * 60°S and 70°N, where nearly everybody lives.
+     *
+     * @param seed          Seed for the whole data set
+     * @param locationIndex Index of the location, starting at 0
+     * @return an array containing the latitude and the longitude of the location
+     */
+    public static double[] createLocationCoordinates(long seed, int locationIndex) {
+        Random random = new Random(mix(seed ^ LOCATION_SALT, locationIndex, 0));
+        double latitude = -60 + random.nextDouble() * 130;
+        double longitude = -180 + random.nextDouble() * 360;
+        return new double[]{latitude, longitude};
+    }
+
+    /**
+     * Creates part of a grid of weather rows covering numLocations locations for numDays days
+     * each. Rows are numbered location by location, so row r holds day (r % numDays) of location
+     * (r / numDays).
+     * <p>
+     * The weather table has no location column and only allows one row per date, so every row is
+     * given its own date: row r is dated startDate + r days. Each location therefore occupies its
+     * own block of dates, and the whole grid can be inserted without rows replacing each other.
+     *
+     * @param seed         Seed for the whole data set
+     * @param startDate    Normalized date of the first row
+     * @param numLocations Number of locations in the grid
+     * @param numDays      Number of days per location
+     * @param fromRow      First row of the grid to create
+     * @param rowCount     Number of rows to create
+     * @return ContentValues for the requested rows, ready to be passed to bulkInsert
+     */
+    public static ContentValues[] createWeatherContentValues(long seed, long startDate,
+            int numLocations, int numDays, int fromRow, int rowCount) {
+
+        long totalRows = (long) numLocations * numDays;
+        if (fromRow < 0 || rowCount < 0 || fromRow + (long) rowCount > totalRows) {
+            throw new IllegalArgumentException("Rows " + fromRow + " to " + (fromRow + rowCount)
+                    + " are outside of a grid of " + totalRows + " rows");
+        }
+
+        ContentValues[] weatherValues = new ContentValues[rowCount];
+        FakeDay day = new FakeDay();
+
+        for (int i = 0; i < rowCount; i++) {
+            int row = fromRow + i;
+            int locationIndex = row / numDays;
+            int dayIndex = row % numDays;
+            double latitude = createLocationCoordinates(seed, locationIndex)[0];
+            long date = startDate + row * SunshineDateUtils.DAY_IN_MILLIS;
+
+            /* The season comes from the day within the location, not from the unique row date */
+            long seasonDate = startDate + dayIndex * SunshineDateUtils.DAY_IN_MILLIS;
+            createFakeDay(seed, locationIndex, dayIndex, latitude, seasonDate, day);
+
+            weatherValues[i] = createWeatherContentValues(date, day);
+        }
+
+        return weatherValues;
+    }
+
+    /**
+     * Creates a forecast for one of the fake locations in the same JSON format that the weather
+     * server returns, so it can be fed straight into
+     * {@link OpenWeatherJsonUtils#getWeatherContentValuesFromJson(Context, String)}.
+     * <p>
+     * With an entryIntervalMillis of one day this produces a daily forecast. With a shorter
+     * interval, such as one or three hours, it produces hourly entries in which the temperature
+     * follows the time of day around that day's high and low.
+     *
+     * @param seed                Seed for the whole data set
+     * @param locationIndex       Index of the location, starting at 0
+     * @param startDate           Time of the first entry in milliseconds
+     * @param numEntries          Number of entries in the forecast's list
+     * @param entryIntervalMillis Time between two entries in milliseconds
+     * @return JSON forecast in OpenWeatherMap format
+     */
+    public static String createForecastJson(long seed, int locationIndex, long startDate,
+            int numEntries, long entryIntervalMillis) {
+
+        double[] coordinates = createLocationCoordinates(seed, locationIndex);
+        double latitude = coordinates[0];
+        double longitude = coordinates[1];
+
+        /* Roughly 150 characters per entry; sizing up front avoids regrowing huge payloads */
+        StringBuilder json = new StringBuilder(200 + numEntries * 160);
+        json.append("{\"cod\":\"200\",\"message\":0,\"city\":{\"id\":")
+                .append(locationIndex)
+                .append(",\"name\":\"Fake City ")
+                .append(locationIndex)
+                .append("\",\"coord\":{\"lat\":");
+        appendRounded(json, latitude);
+        json.append(",\"lon\":");
+        appendRounded(json, longitude);
+        json.append("},\"country\":\"XX\"},\"cnt\":")
+                .append(numEntries)
+                .append(",\"list\":[");
+
+        FakeDay day = new FakeDay();
+        long cachedDayNumber = Long.MIN_VALUE;
+
+        for (int i = 0; i < numEntries; i++) {
+            long time = startDate + i * entryIntervalMillis;
+            long dayNumber = floorDiv(time, SunshineDateUtils.DAY_IN_MILLIS);
+
+            if (dayNumber != cachedDayNumber) {
+                int dayIndex = (int) (dayNumber
+                        - floorDiv(startDate, SunshineDateUtils.DAY_IN_MILLIS));
+                createFakeDay(seed, locationIndex, dayIndex, latitude,
+                        dayNumber * SunshineDateUtils.DAY_IN_MILLIS, day);
+                cachedDayNumber = dayNumber;
+            }
+
+            double max = day.high;
+            double min = day.low;
+            if (entryIntervalMillis < SunshineDateUtils.DAY_IN_MILLIS) {
+                /* Local solar hour, with the warmest point of the day at 15:00 */
+                double utcHour = (time - dayNumber * SunshineDateUtils.DAY_IN_MILLIS)
+                        / (double) HOUR_IN_MILLIS;
+                double localHour = utcHour + longitude / 15.0;
+                double cycle = Math.sin(2 * Math.PI * (localHour - 9) / 24.0);
+                Random hourRandom = new Random(mix(seed ^ HOUR_SALT, locationIndex, i));
+                double temperature = (day.high + day.low) / 2
+                        + (day.high - day.low) / 2 * cycle
+                        + hourRandom.nextGaussian() * 0.5;
+                max = temperature + 0.5;
+                min = temperature - 0.5;
+            }
+
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(time / 1000).append(",\"temp\":{\"min\":");
+            appendRounded(json, min);
+            json.append(",\"max\":");
+            appendRounded(json, max);
+            json.append("},\"pressure\":");
+            appendRounded(json, day.pressure);
+            json.append(",\"humidity\":").append((int) day.humidity);
+            json.append(",\"weather\":[{\"id\":").append(day.weatherId);
+            json.append("}],\"speed\":");
+            appendRounded(json, day.windSpeed);
+            json.append(",\"deg\":");
+            appendRounded(json, day.degrees);
+            json.append('}');
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Fills in the weather for one day at one location.
+     *
+     * @param seed          Seed for the whole data set
+     * @param locationIndex Index of the location
+     * @param dayIndex      Index of the day within the location's forecast
+     * @param latitude      Latitude of the location, which drives climate and seasons
+     * @param date          Date of the day in milliseconds, which drives the season
+     * @param day           FakeDay to fill in
+     */
+    private static void createFakeDay(long seed, int locationIndex, int dayIndex,
+            double latitude, long date, FakeDay day) {
+
+        Random random = new Random(mix(seed ^ DAY_SALT, locationIndex, dayIndex));
+
+        /*
+         * A very rough climate model: it is warm at the equator and colder towards the poles,
+         * seasons get stronger with latitude, and the two hemispheres have opposite seasons with
+         * the northern summer peaking in mid July.
+         */
+        double absLatitude = Math.abs(latitude);
+        double annualMean = 28 - 0.45 * absLatitude;
+        double seasonalAmplitude = 0.3 * absLatitude;
+        double dayOfYear = (date / (double) SunshineDateUtils.DAY_IN_MILLIS) % 365.2425;
+        double season = Math.cos(2 * Math.PI * (dayOfYear - 196) / 365.2425);
+        if (latitude < 0) season = -season;
+
+        double mean = annualMean + seasonalAmplitude * season + random.nextGaussian() * 3;
+        double range = Math.max(2, 9 + random.nextGaussian() * 3);
+
+        int group = pickConditionGroup(random);
+        if (mean < SNOW_THRESHOLD_CELSIUS && (group == GROUP_RAIN || group == GROUP_DRIZZLE)) {
+            group = GROUP_SNOW;
+        }
+        int[] ids = CONDITION_GROUPS[group];
+        int weatherId = ids[random.nextInt(ids.length)];
+
+        boolean wet = group == GROUP_RAIN || group == GROUP_DRIZZLE
+                || group == GROUP_THUNDERSTORM || group == GROUP_SNOW;
+        boolean stormy = group == GROUP_THUNDERSTORM || group == GROUP_EXTREME;
+
+        /* Wet days are more humid, cooler during the day and have lower pressure */
+        if (wet) range *= 0.6;
+
+        day.high = mean + range / 2;
+        day.low = mean - range / 2;
+        day.weatherId = weatherId;
+        day.humidity = clamp((wet ? 85 : 60) + random.nextGaussian() * 10, 5, 100);
+        day.pressure = 1013 + (wet ? -8 : 2) + (stormy ? -10 : 0) + random.nextGaussian() * 7;
+        /* Wind speeds are roughly Rayleigh distributed */
+        double windX = random.nextGaussian();
+        double windY = random.nextGaussian();
+        day.windSpeed = Math.sqrt(windX * windX + windY * windY) * (stormy ? 6 : 3);
+        day.degrees = random.nextDouble() * 360;
+    }
+
+    private static ContentValues createWeatherContentValues(long date, FakeDay day) {
+        ContentValues testWeatherValues = new ContentValues();
+        testWeatherValues.put(WeatherEntry.COLUMN_DATE, date);
+        testWeatherValues.put(WeatherEntry.COLUMN_DEGREES, day.degrees);
+        testWeatherValues.put(WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+        testWeatherValues.put(WeatherEntry.COLUMN_PRESSURE, day.pressure);
+        testWeatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, day.high);
+        testWeatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, day.low);
+        testWeatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+        testWeatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+        return testWeatherValues;
+    }
+
+    private static int pickConditionGroup(Random random) {
+        int pick = random.nextInt(TOTAL_CONDITION_WEIGHT);
+        for (int group = 0; group < CONDITION_GROUP_WEIGHTS.length; group++) {
+            pick -= CONDITION_GROUP_WEIGHTS[group];
+            if (pick < 0) return group;
+        }
+        return 0;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    private static void appendRounded(StringBuilder json, double value) {
+        json.append(Math.round(value * 100) / 100.0);
+    }
+
+    /**
+     * Combines a seed with two indices into a well mixed seed for java.util.Random. Seeds that
+     * only differ by one give visibly correlated first values from java.util.Random, so the
+     * indices are scrambled with the SplitMix64 finalizer before use.
+     */
+    private static long mix(long seed, long first, long second) {
+        long z = seed;
+        z = splitMix(z + first * 0x9e3779b97f4a7c15L);
+        z = splitMix(z + second * 0x9e3779b97f4a7c15L);
+        return z;
+    }
+
+    private static long splitMix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 }
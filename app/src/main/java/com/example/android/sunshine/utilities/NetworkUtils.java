@@ -17,6 +17,10 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.os.CancellationSignal;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
@@ -56,6 +60,20 @@ public final class NetworkUtils {
 
     private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
 
+    /*
+     * The base URL actually used to build requests. It defaults to FORECAST_BASE_URL, but tests
+     * and benchmarks can point it at a local stand-in server using setForecastBaseUrl so that a
+     * sync can run without any network access.
+     */
+    private static String sForecastBaseUrl = FORECAST_BASE_URL;
+
+    /*
+     * How long to wait for the weather server to accept a connection and to send data. Without
+     * these, a stalled server could hold a sync (and the wakelock of the job running it) forever.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 15000;
+
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
      * server. They are simply here to allow us to teach you how to build a URL if you were to use
@@ -83,6 +101,17 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /**
+     * Overrides the base URL that weather requests are built from. Passing null restores the
+     * default weather server.
+     *
+     * @param baseUrl The base URL of the weather server to use, or null for the default
+     */
+    @VisibleForTesting
+    public static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrl = (baseUrl == null) ? FORECAST_BASE_URL : baseUrl;
+    }
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -118,7 +147,7 @@ public final class NetworkUtils {
      * @return The Url to use to query the weather server.
      */
     private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+        Uri weatherQueryUri = Uri.parse(sForecastBaseUrl).buildUpon()
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
                 .appendQueryParameter(FORMAT_PARAM, format)
@@ -144,7 +173,7 @@ public final class NetworkUtils {
      * @return The URL to use to query the weather server.
      */
     private static URL buildUrlWithLocationQuery(String locationQuery) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+        Uri weatherQueryUri = Uri.parse(sForecastBaseUrl).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
@@ -169,7 +198,42 @@ public final class NetworkUtils {
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        return getResponseFromHttpUrl(url, null);
+    }
+
+    /**
+     * This method returns the entire result from the HTTP response. If the CancellationSignal is
+     * canceled while the request is in flight, the connection is torn down, which unblocks any
+     * pending connect or read with an IOException. Tearing it down can do socket I/O, so it
+     * happens on a background thread rather than on the thread that canceled, which is usually
+     * the main thread.
+     *
+     * @param url                The URL to fetch the HTTP response from.
+     * @param cancellationSignal Signal used to abort the request, or null if it can't be aborted
+     * @return The contents of the HTTP response, null if no response
+     * @throws IOException Related to network and stream reading
+     */
+    public static String getResponseFromHttpUrl(URL url,
+            @Nullable CancellationSignal cancellationSignal) throws IOException {
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    /* The thread doing the request is blocked in it, so it can't do this itself */
+                    AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            urlConnection.disconnect();
+                        }
+                    });
+                }
+            });
+        }
+
         try {
             InputStream in = urlConnection.getInputStream();
 
@@ -181,9 +245,21 @@ public final class NetworkUtils {
             if (hasInput) {
                 response = scanner.next();
             }
+
+            /*
+             * Scanner swallows IOExceptions from the stream it reads, which would make an aborted
+             * or broken read look like a short response. Rethrow it instead.
+             */
+            IOException readException = scanner.ioException();
             scanner.close();
+            if (readException != null) {
+                throw readException;
+            }
             return response;
         } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
             urlConnection.disconnect();
         }
     }
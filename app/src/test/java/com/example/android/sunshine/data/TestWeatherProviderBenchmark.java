@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.utilities.FakeDataUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how WeatherProvider performs as the weather table grows, without needing a device.
+ * Robolectric runs the provider against a real SQLite database on the JVM, so this runs on every
+ * commit alongside the other unit tests. By default it only uses a small data set, to keep the
+ * test run quick; larger ones are given through the sunshine.benchmark.sizes system property,
+ * e.g. ./gradlew test -Dsunshine.benchmark.sizes=1000,10000,100000
+ * <p>
+ * For each data set size, the benchmark measures
+ * <p>
+ *   1) bulkInsert throughput in rows per second, along with the latency of each batch
+ * <p>
+ *   2) the latency of a single date query through CODE_WEATHER_WITH_DATE
+ * <p>
+ *   3) the latency of a full range query that walks every row, as the forecast list does
+ * <p>
+ *   4) the cost of deleting every row
+ * <p>
+ * Every measurement is repeated, and p50 and p99 are reported. Results are printed and also
+ * written as JSON to the file named by the sunshine.benchmark.output system property, which
+ * defaults to build/benchmark-results/weather-provider.json. The data set sizes are given in
+ * sunshine.benchmark.sizes as a comma separated list, and default to {@link #DEFAULT_SIZES}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestWeatherProviderBenchmark {
+
+    private static final String DEFAULT_SIZES = "1000";
+    private static final String DEFAULT_OUTPUT = "build/benchmark-results/weather-provider.json";
+
+    private static final long SEED = 28;
+
+    /* October 1st, 2016 at midnight, GMT time */
+    private static final long START_DATE = 1475280000000L;
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+    private static final int ROUNDS = 3;
+    private static final int SINGLE_DATE_QUERIES = 200;
+    private static final int FULL_RANGE_QUERIES = 5;
+
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private WeatherProvider mProvider;
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(
+                WeatherProvider.class, WeatherContract.CONTENT_AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void benchmarkWeatherProvider() throws IOException {
+        int[] sizes = parseSizes(System.getProperty("sunshine.benchmark.sizes", DEFAULT_SIZES));
+        StringBuilder results =
+                new StringBuilder("{\"benchmark\":\"WeatherProvider\",\"results\":[");
+
+        for (int s = 0; s < sizes.length; s++) {
+            int size = sizes[s];
+
+            Samples insertRowsPerSecond = new Samples(ROUNDS);
+            Samples insertBatchNanos = new Samples(ROUNDS * (size / INSERT_BATCH_SIZE + 1));
+            Samples singleDateNanos = new Samples(ROUNDS * SINGLE_DATE_QUERIES);
+            Samples fullRangeNanos = new Samples(ROUNDS * FULL_RANGE_QUERIES);
+            Samples deleteNanos = new Samples(ROUNDS);
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long insertNanos = insertRows(size, insertBatchNanos);
+                insertRowsPerSecond.add((long) (size / (insertNanos / 1e9)));
+
+                querySingleDates(size, new Random(SEED + round), singleDateNanos);
+
+                for (int i = 0; i < FULL_RANGE_QUERIES; i++) {
+                    fullRangeNanos.add(queryFullRange(size));
+                }
+
+                long start = System.nanoTime();
+                int deleted = mContentResolver.delete(
+                        WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+                deleteNanos.add(System.nanoTime() - start);
+                assertEquals("Delete did not remove every row", size, deleted);
+            }
+
+            System.out.println(String.format(Locale.US,
+                    "WeatherProvider rows=%d insert_rows_per_sec_p50=%d insert_batch_p99_ms=%.2f "
+                            + "single_date_p50_ms=%.3f single_date_p99_ms=%.3f "
+                            + "full_range_p50_ms=%.2f full_range_p99_ms=%.2f "
+                            + "delete_p50_ms=%.2f delete_p99_ms=%.2f",
+                    size, insertRowsPerSecond.percentile(50),
+                    insertBatchNanos.percentile(99) / 1e6,
+                    singleDateNanos.percentile(50) / 1e6, singleDateNanos.percentile(99) / 1e6,
+                    fullRangeNanos.percentile(50) / 1e6, fullRangeNanos.percentile(99) / 1e6,
+                    deleteNanos.percentile(50) / 1e6, deleteNanos.percentile(99) / 1e6));
+
+            if (s > 0) results.append(',');
+            results.append("{\"rows\":").append(size);
+            insertRowsPerSecond.appendJson(results, "insert_rows_per_sec");
+            insertBatchNanos.appendJson(results, "insert_batch_nanos");
+            singleDateNanos.appendJson(results, "single_date_query_nanos");
+            fullRangeNanos.appendJson(results, "full_range_query_nanos");
+            deleteNanos.appendJson(results, "delete_all_nanos");
+            results.append('}');
+        }
+
+        results.append("]}");
+        writeResults(results.toString());
+    }
+
+    /**
+     * Inserts a data set of the given size in batches, the way a large sync would.
+     *
+     * @return total time spent in bulkInsert, in nanoseconds
+     */
+    private long insertRows(int size, Samples batchNanos) {
+        long total = 0;
+        for (int fromRow = 0; fromRow < size; fromRow += INSERT_BATCH_SIZE) {
+            int rowCount = Math.min(INSERT_BATCH_SIZE, size - fromRow);
+            ContentValues[] batch = FakeDataUtils.createWeatherContentValues(
+                    SEED, START_DATE, 1, size, fromRow, rowCount);
+
+            long start = System.nanoTime();
+            int inserted = mContentResolver.bulkInsert(
+                    WeatherContract.WeatherEntry.CONTENT_URI, batch);
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals("bulkInsert did not insert the whole batch", rowCount, inserted);
+            batchNanos.add(elapsed);
+            total += elapsed;
+        }
+        return total;
+    }
+
+    private void querySingleDates(int size, Random random, Samples samples) {
+        for (int i = 0; i < SINGLE_DATE_QUERIES; i++) {
+            long date = START_DATE + random.nextInt(size) * SunshineDateUtils.DAY_IN_MILLIS;
+
+            long start = System.nanoTime();
+            Cursor cursor = mContentResolver.query(
+                    WeatherContract.WeatherEntry.buildWeatherUriWithDate(date),
+                    FORECAST_PROJECTION,
+                    null,
+                    null,
+                    null);
+            boolean found = cursor.moveToFirst();
+            cursor.close();
+            samples.add(System.nanoTime() - start);
+
+            assertTrue("No row found for date " + date, found);
+        }
+    }
+
+    private long queryFullRange(int size) {
+        long start = System.nanoTime();
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + START_DATE,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        /* Touch every row, as binding the forecast list would */
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            cursor.getLong(0);
+            cursor.getDouble(1);
+            cursor.getDouble(2);
+            cursor.getInt(3);
+            rows++;
+        }
+        cursor.close();
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals("Full range query did not return every row", size, rows);
+        return elapsed;
+    }
+
+    private static int[] parseSizes(String sizesProperty) {
+        String[] parts = sizesProperty.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    private static void writeResults(String json) throws IOException {
+        File output = new File(System.getProperty("sunshine.benchmark.output", DEFAULT_OUTPUT));
+        File parent = output.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        Writer writer = new FileWriter(output);
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+        System.out.println("WeatherProvider results written to " + output.getAbsolutePath());
+    }
+
+    /**
+     * A growable list of measurements that can report percentiles.
+     */
+    private static class Samples {
+        private long[] mValues;
+        private int mCount;
+
+        Samples(int expectedCount) {
+            mValues = new long[Math.max(1, expectedCount)];
+        }
+
+        void add(long value) {
+            if (mCount == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mCount * 2);
+            }
+            mValues[mCount++] = value;
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100, using the nearest rank method
+         */
+        long percentile(int percentile) {
+            long[] sorted = Arrays.copyOf(mValues, mCount);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * mCount);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        void appendJson(StringBuilder json, String name) {
+            json.append(",\"").append(name).append("\":{\"count\":").append(mCount)
+                    .append(",\"p50\":").append(percentile(50))
+                    .append(",\"p99\":").append(percentile(99))
+                    .append('}');
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.sync.SyncStatsContract.SyncStatsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks the power-of-two histogram that SyncMetrics keeps per stage, and the percentiles and
+ * summary worked out from it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestSyncMetrics {
+
+    private SyncMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mMetrics = SyncMetrics.getInstance(RuntimeEnvironment.application);
+        mMetrics.reset();
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        assertEquals(0, SyncMetrics.getBucket(0));
+        assertEquals(1, SyncMetrics.getBucket(1));
+        assertEquals(2, SyncMetrics.getBucket(2));
+        assertEquals(2, SyncMetrics.getBucket(3));
+        assertEquals(3, SyncMetrics.getBucket(4));
+        assertEquals(11, SyncMetrics.getBucket(1024));
+
+        /* Everything past 2^16ms lands in the open-ended last bucket */
+        assertEquals(17, SyncMetrics.getBucket(1L << 17));
+        assertEquals(17, SyncMetrics.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentilesAreBucketUpperBounds() {
+        /* 90 fast runs and 10 slow ones */
+        for (int i = 0; i < 90; i++) {
+            mMetrics.recordStage(SyncMetrics.STAGE_FETCH, 5, 0, 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            mMetrics.recordStage(SyncMetrics.STAGE_FETCH, 300, 0, 0);
+        }
+
+        /* 5ms is in [4, 8), so the estimate is 8ms */
+        assertEquals(8, mMetrics.getPercentileMillis(SyncMetrics.STAGE_FETCH, 50));
+        assertEquals(8, mMetrics.getPercentileMillis(SyncMetrics.STAGE_FETCH, 90));
+
+        /* 300ms is in [256, 512), but the estimate never exceeds the real maximum */
+        assertEquals(300, mMetrics.getPercentileMillis(SyncMetrics.STAGE_FETCH, 99));
+    }
+
+    @Test
+    public void testOpenEndedBucketReportsMaximum() {
+        mMetrics.recordStage(SyncMetrics.STAGE_INSERT, 200000, 0, 0);
+        assertEquals(200000, mMetrics.getPercentileMillis(SyncMetrics.STAGE_INSERT, 50));
+    }
+
+    @Test
+    public void testStageThatNeverRanReportsZero() {
+        assertEquals(0, mMetrics.getPercentileMillis(SyncMetrics.STAGE_WEAR, 99));
+    }
+
+    @Test
+    public void testSummaryCountsFailures() {
+        mMetrics.recordStage(SyncMetrics.STAGE_PARSE, 10, 100, 14);
+        mMetrics.recordFailure(SyncMetrics.STAGE_PARSE, "No weather in response");
+
+        Cursor cursor = mMetrics.getSummaryCursor();
+        try {
+            assertTrue(cursor.moveToPosition(SyncMetrics.STAGE_PARSE));
+            assertEquals("parse", cursor.getString(
+                    cursor.getColumnIndex(SyncStatsEntry.COLUMN_STAGE)));
+            assertEquals(1, cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_COUNT)));
+            assertEquals(1,
+                    cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_FAILURES)));
+            assertEquals(14,
+                    cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_TOTAL_ROWS)));
+            assertEquals("No weather in response", cursor.getString(
+                    cursor.getColumnIndex(SyncStatsEntry.COLUMN_LAST_ERROR)));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that WearRefreshThrottle ignores requests while the weather is fresh, and limits each
+ * watch to one sync per interval without holding back the others.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestWearRefreshThrottle {
+
+    private static final String NODE = "node-1";
+    private static final String OTHER_NODE = "node-2";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+
+        /* Start with no sync and no earlier requests */
+        getThrottlePreferences().edit().clear().commit();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_last_sync))
+                .commit();
+    }
+
+    @Test
+    public void testIgnoresRequestsWhileFresh() {
+        SunshinePreferences.saveLastSyncTime(mContext, System.currentTimeMillis());
+        assertFalse(WearRefreshThrottle.shouldSync(mContext, NODE));
+
+        /* A rejected request doesn't count against the node */
+        assertFalse(getThrottlePreferences().contains(NODE));
+    }
+
+    @Test
+    public void testAcceptsRequestsOnceStale() {
+        long twoHoursAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        SunshinePreferences.saveLastSyncTime(mContext, twoHoursAgo);
+        assertTrue(WearRefreshThrottle.shouldSync(mContext, NODE));
+    }
+
+    @Test
+    public void testThrottlesSameNodeWithinInterval() {
+        assertTrue(WearRefreshThrottle.shouldSync(mContext, NODE));
+        assertFalse(WearRefreshThrottle.shouldSync(mContext, NODE));
+
+        /* Once the interval has passed, the node is accepted again */
+        long longAgo = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(31);
+        getThrottlePreferences().edit().putLong(NODE, longAgo).commit();
+        assertTrue(WearRefreshThrottle.shouldSync(mContext, NODE));
+    }
+
+    @Test
+    public void testOtherNodeStillAccepted() {
+        assertTrue(WearRefreshThrottle.shouldSync(mContext, NODE));
+        assertTrue(WearRefreshThrottle.shouldSync(mContext, OTHER_NODE));
+        assertFalse(WearRefreshThrottle.shouldSync(mContext, NODE));
+    }
+
+    private SharedPreferences getThrottlePreferences() {
+        return mContext.getSharedPreferences("wear_refresh", Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that FakeDataUtils gives the same data for the same seed, however it is batched.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestFakeDataUtils {
+
+    private static final long SEED = 27;
+
+    /* October 1st, 2016 at midnight, GMT time */
+    private static final long START_DATE = 1475280000000L;
+
+    private static final int NUM_LOCATIONS = 3;
+    private static final int NUM_DAYS = 10;
+
+    @Test
+    public void testSameSeedGivesSameRows() {
+        ContentValues[] first = createAll(SEED);
+        ContentValues[] second = createAll(SEED);
+
+        assertEquals(first.length, second.length);
+        for (int i = 0; i < first.length; i++) {
+            assertEquals("Row " + i, first[i], second[i]);
+        }
+    }
+
+    @Test
+    public void testDifferentSeedGivesDifferentRows() {
+        ContentValues[] first = createAll(SEED);
+        ContentValues[] second = createAll(SEED + 1);
+
+        boolean anyDifferent = false;
+        for (int i = 0; i < first.length; i++) {
+            anyDifferent |= !first[i].equals(second[i]);
+        }
+        assertTrue(anyDifferent);
+    }
+
+    @Test
+    public void testBatchesMatchSingleRun() {
+        ContentValues[] all = createAll(SEED);
+        int totalRows = NUM_LOCATIONS * NUM_DAYS;
+
+        /* An odd batch size, so batches straddle the boundaries between locations */
+        int batchSize = 7;
+        for (int fromRow = 0; fromRow < totalRows; fromRow += batchSize) {
+            int rowCount = Math.min(batchSize, totalRows - fromRow);
+            ContentValues[] batch = FakeDataUtils.createWeatherContentValues(
+                    SEED, START_DATE, NUM_LOCATIONS, NUM_DAYS, fromRow, rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                assertEquals("Row " + (fromRow + i), all[fromRow + i], batch[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testForecastJsonIsDeterministic() {
+        long interval = SunshineDateUtils.DAY_IN_MILLIS;
+        assertEquals(FakeDataUtils.createForecastJson(SEED, 1, START_DATE, 14, interval),
+                FakeDataUtils.createForecastJson(SEED, 1, START_DATE, 14, interval));
+    }
+
+    private static ContentValues[] createAll(long seed) {
+        return FakeDataUtils.createWeatherContentValues(seed, START_DATE, NUM_LOCATIONS,
+                NUM_DAYS, 0, NUM_LOCATIONS * NUM_DAYS);
+    }
+}
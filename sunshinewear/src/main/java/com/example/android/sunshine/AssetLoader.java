@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches icon Assets from the Data Layer and decodes them, either without blocking the caller or,
+ * with {@link #loadAndWait}, for callers on a background thread that need the icon before they
+ * return.
+ * <p>
+ * Everything happens on one background thread, which the GoogleApiClient also delivers its
+ * callbacks to, so no thread ever sits blocked waiting on Google Play services. Connecting and
+ * fetching each have their own timeout. A transient failure, such as a timeout or a dropped
+ * connection, is retried a few times with a growing delay; anything else gives up straight away.
+ * Only the latest Asset matters, so a new load, or {@link #cancel()}, abandons the one in
+ * progress, including its outstanding fetch. How long a load took, retries included, is passed
+ * to the callback and logged.
+ * <p>
+ * The client is disconnected once nothing has been loaded for {@link #IDLE_TIMEOUT_MILLIS}.
+ */
+public final class AssetLoader implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    private static final String TAG = AssetLoader.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long FETCH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /* Attempts per load, and the delay before the first retry, which doubles each time */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /* How long the client stays connected after the last load */
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /*
+     * How long loadAndWait waits: every attempt timing out, the retry delays, which add up to
+     * less than the last one doubled, and a second to decode
+     */
+    private static final long WAIT_TIMEOUT_MILLIS =
+            MAX_ATTEMPTS * (CONNECT_TIMEOUT_MILLIS + FETCH_TIMEOUT_MILLIS)
+                    + (RETRY_DELAY_MILLIS << (MAX_ATTEMPTS - 1))
+                    + TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Receives the outcome of a load that wasn't superseded or canceled. It is called on the
+     * loader's thread, so it may do a little I/O, such as saving the icon.
+     */
+    public interface Callback {
+        /**
+         * @param icon          The decoded icon, or null if it couldn't be loaded
+         * @param attempts      How many attempts it took
+         * @param latencyMillis Time from the load being requested to it finishing
+         */
+        void onAssetLoaded(@Nullable Bitmap icon, int attempts, long latencyMillis);
+    }
+
+    private static AssetLoader sInstance;
+
+    private final Handler mHandler;
+    private final GoogleApiClient mGoogleApiClient;
+
+    /* Bumped by every load and cancel, so stale callbacks can tell they're no longer wanted */
+    private volatile int mGeneration;
+
+    /* The rest is only touched on the loader's thread */
+    private Load mLoad;
+    private PendingResult<DataApi.GetFdForAssetResult> mPendingFetch;
+
+    private final Runnable mConnectTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "Timed out connecting to the Wearable API");
+            mGoogleApiClient.disconnect();
+            onAttemptFailed(true);
+        }
+    };
+
+    private final Runnable mRetry = new Runnable() {
+        @Override
+        public void run() {
+            startAttempt();
+        }
+    };
+
+    private final Runnable mIdleDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            if (mLoad == null && (mGoogleApiClient.isConnected()
+                    || mGoogleApiClient.isConnecting())) {
+                Log.d(TAG, "Idle, disconnecting from the Wearable API");
+                mGoogleApiClient.disconnect();
+            }
+        }
+    };
+
+    private static final class Load {
+        final int generation;
+        final Asset asset;
+        final int size;
+        final Callback callback;
+        final long startedAt = SystemClock.elapsedRealtime();
+        int attempts;
+
+        Load(int generation, Asset asset, int size, Callback callback) {
+            this.generation = generation;
+            this.asset = asset;
+            this.size = size;
+            this.callback = callback;
+        }
+    }
+
+    /* Hands the icon over to a thread waiting in loadAndWait, or recycles it if it gave up */
+    private static final class WaitingCallback implements Callback {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        private Bitmap mIcon;
+        private boolean mAbandoned;
+
+        @Override
+        public void onAssetLoaded(@Nullable Bitmap icon, int attempts, long latencyMillis) {
+            synchronized (this) {
+                if (mAbandoned) {
+                    if (icon != null) {
+                        icon.recycle();
+                    }
+                    return;
+                }
+                mIcon = icon;
+            }
+            loaded.countDown();
+        }
+
+        synchronized Bitmap abandon() {
+            mAbandoned = true;
+            return mIcon;
+        }
+    }
+
+    private AssetLoader(Context context) {
+        HandlerThread thread =
+                new HandlerThread("AssetLoader", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .setHandler(mHandler)
+                .build();
+    }
+
+    /**
+     * Returns the process-wide AssetLoader. Nothing is connected until something is loaded.
+     *
+     * @param context Used to build the GoogleApiClient
+     * @return the AssetLoader instance
+     */
+    public static synchronized AssetLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AssetLoader(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts loading an icon Asset, abandoning any load still in progress. This returns
+     * straight away.
+     *
+     * @param asset    The icon Asset from the data item
+     * @param size     Width and height to decode the icon to, in pixels
+     * @param callback Receives the icon, unless the load is superseded or canceled
+     */
+    public void load(final Asset asset, final int size, final Callback callback) {
+        final Load load = new Load(++mGeneration, asset, size, callback);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (load.generation != mGeneration) {
+                    return;
+                }
+                abandonLoad();
+                mLoad = load;
+                startAttempt();
+            }
+        });
+    }
+
+    /**
+     * Loads an icon Asset like {@link #load}, but waits for it, timeouts and retries included.
+     * This blocks for up to {@link #WAIT_TIMEOUT_MILLIS}, so it must not be called on the main
+     * thread, nor on the loader's own.
+     *
+     * @param asset The icon Asset from the data item
+     * @param size  Width and height to decode the icon to, in pixels
+     * @return the decoded icon, or null if it couldn't be loaded in time or the load was
+     * superseded or canceled
+     */
+    @Nullable
+    public Bitmap loadAndWait(Asset asset, int size) {
+        WaitingCallback callback = new WaitingCallback();
+        load(asset, size, callback);
+
+        boolean loaded;
+        try {
+            loaded = callback.loaded.await(WAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            loaded = false;
+        }
+
+        Bitmap icon = callback.abandon();
+        if (!loaded && icon == null) {
+            Log.d(TAG, "Gave up waiting for icon Asset");
+            cancel();
+        }
+        return icon;
+    }
+
+    /**
+     * Abandons the load in progress, for when the icon no longer comes from an Asset.
+     */
+    public void cancel() {
+        mGeneration++;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                abandonLoad();
+                scheduleIdleDisconnect();
+            }
+        });
+    }
+
+    private void abandonLoad() {
+        mHandler.removeCallbacks(mConnectTimeout);
+        mHandler.removeCallbacks(mRetry);
+        if (mPendingFetch != null) {
+            mPendingFetch.cancel();
+            mPendingFetch = null;
+        }
+        mLoad = null;
+    }
+
+    private void startAttempt() {
+        if (mLoad == null) {
+            return;
+        }
+        mLoad.attempts++;
+        mHandler.removeCallbacks(mIdleDisconnect);
+
+        if (mGoogleApiClient.isConnected()) {
+            fetch();
+            return;
+        }
+
+        mHandler.removeCallbacks(mConnectTimeout);
+        mHandler.postDelayed(mConnectTimeout, CONNECT_TIMEOUT_MILLIS);
+        if (!mGoogleApiClient.isConnecting()) {
+            mGoogleApiClient.connect();
+        }
+    }
+
+    @Override
+    public void onConnected(@Nullable Bundle connectionHint) {
+        mHandler.removeCallbacks(mConnectTimeout);
+        if (mLoad != null && mPendingFetch == null) {
+            fetch();
+        } else {
+            scheduleIdleDisconnect();
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        /*
+         * A fetch in flight won't complete. GoogleApiClient reconnects by itself, and we fetch
+         * again from onConnected, unless that takes too long and counts as a failed attempt.
+         */
+        Log.d(TAG, "onConnectionSuspended: " + cause);
+        if (mPendingFetch != null) {
+            mPendingFetch.cancel();
+            mPendingFetch = null;
+        }
+        if (mLoad != null) {
+            mHandler.removeCallbacks(mConnectTimeout);
+            mHandler.postDelayed(mConnectTimeout, CONNECT_TIMEOUT_MILLIS);
+        }
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        mHandler.removeCallbacks(mConnectTimeout);
+        Log.d(TAG, "onConnectionFailed: " + result);
+        /* Without the Wearable API there's no point trying again */
+        onAttemptFailed(result.getErrorCode() != ConnectionResult.API_UNAVAILABLE
+                && result.getErrorCode() != ConnectionResult.SERVICE_INVALID);
+    }
+
+    private void fetch() {
+        final Load load = mLoad;
+        mPendingFetch = Wearable.DataApi.getFdForAsset(mGoogleApiClient, load.asset);
+        mPendingFetch.setResultCallback(new ResultCallback<DataApi.GetFdForAssetResult>() {
+            @Override
+            public void onResult(@NonNull DataApi.GetFdForAssetResult result) {
+                if (load != mLoad) {
+                    result.release();
+                    return;
+                }
+                mPendingFetch = null;
+                onFetched(result);
+            }
+        }, FETCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void onFetched(DataApi.GetFdForAssetResult result) {
+        Status status = result.getStatus();
+        InputStream in = result.getInputStream();
+        if (!status.isSuccess() || in == null) {
+            Log.d(TAG, "Could not fetch icon Asset: " + status);
+            result.release();
+            onAttemptFailed(isTransient(status));
+            return;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = IconDecoder.readFully(in);
+        } catch (IOException e) {
+            Log.d(TAG, "Could not read icon Asset", e);
+            onAttemptFailed(true);
+            return;
+        } finally {
+            result.release();
+        }
+
+        finish(IconDecoder.decodeToSize(bytes, mLoad.size));
+    }
+
+    private static boolean isTransient(Status status) {
+        switch (status.getStatusCode()) {
+            case CommonStatusCodes.TIMEOUT:
+            case CommonStatusCodes.INTERRUPTED:
+            case CommonStatusCodes.NETWORK_ERROR:
+            case CommonStatusCodes.INTERNAL_ERROR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void onAttemptFailed(boolean canRetry) {
+        if (mLoad == null) {
+            scheduleIdleDisconnect();
+            return;
+        }
+
+        if (canRetry && mLoad.attempts < MAX_ATTEMPTS) {
+            long delayMillis = RETRY_DELAY_MILLIS << (mLoad.attempts - 1);
+            Log.d(TAG, "Retrying icon Asset in " + delayMillis + " ms");
+            mHandler.postDelayed(mRetry, delayMillis);
+        } else {
+            finish(null);
+        }
+    }
+
+    private void finish(@Nullable Bitmap icon) {
+        Load load = mLoad;
+        mLoad = null;
+        scheduleIdleDisconnect();
+
+        long latencyMillis = SystemClock.elapsedRealtime() - load.startedAt;
+        Log.d(TAG, (icon != null ? "Loaded" : "Failed to load") + " icon Asset in "
+                + latencyMillis + " ms, " + load.attempts + " attempts");
+
+        /* The load may have been superseded while it was decoding */
+        if (load.generation != mGeneration) {
+            if (icon != null) {
+                icon.recycle();
+            }
+            return;
+        }
+        load.callback.onAssetLoaded(icon, load.attempts, latencyMillis);
+    }
+
+    private void scheduleIdleDisconnect() {
+        mHandler.removeCallbacks(mIdleDisconnect);
+        mHandler.postDelayed(mIdleDisconnect, IDLE_TIMEOUT_MILLIS);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+/**
+ * What {@link WatchFaceRenderCore} draws with: text metrics for laying the face out, and the
+ * handful of draw commands a frame is made of.
+ * <p>
+ * WatchFaceCanvasRenderer implements this on top of an android.graphics.Canvas and its Paints.
+ * Keeping Android out of the interface is what lets the layout and draw sequence run, and be
+ * benchmarked, on a plain JVM. Paints are referred to by the int constants below, so that a
+ * command never has to pass an object the implementation would need to look up.
+ */
+public interface FaceCanvas {
+
+    int PAINT_TIME = 0;
+    int PAINT_DATE = 1;
+    int PAINT_HIGH = 2;
+    int PAINT_LOW = 3;
+    int PAINT_SEPARATOR = 4;
+
+    /**
+     * @return the ascent of a paint's font, negative as in Paint.FontMetrics
+     */
+    float getAscent(int paint);
+
+    /**
+     * @return the descent of a paint's font
+     */
+    float getDescent(int paint);
+
+    float measureText(String text, int paint);
+
+    /**
+     * Redirects the following commands into the cached static layer, until
+     * {@link #endStaticLayer()}.
+     */
+    void beginStaticLayer();
+
+    void endStaticLayer();
+
+    /**
+     * Draws the cached static layer over the whole frame.
+     */
+    void drawStaticLayer();
+
+    /**
+     * Fills everything with the background color of the current mode.
+     */
+    void drawBackground();
+
+    void drawText(char[] text, int length, float x, float baseline, int paint);
+
+    void drawText(String text, float x, float baseline, int paint);
+
+    void drawRect(float left, float top, float right, float bottom, int paint);
+
+    /**
+     * Draws the weather icon, size by size pixels.
+     */
+    void drawIcon(int left, int top, int size);
+
+    /**
+     * Draws the ambient time, centered, from pre-rendered glyphs.
+     */
+    void drawAmbientTime(char[] time, int length, float centerX, float baseline);
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Keeps draw times for the most recent frames, separately for ambient and interactive mode, and
+ * counts update ticks that ran late.
+ * <p>
+ * Recording a frame or a tick only writes into arrays allocated up front, so the stats can stay
+ * on without disturbing what they measure. Percentiles are worked out on demand from a copy of
+ * the window, which is sorted in a scratch array that is also allocated up front.
+ */
+public final class FrameStats {
+
+    /* A tick counts as late once it's this fraction of its period behind, as in 1/10 */
+    private static final int LATE_TICK_DIVISOR = 10;
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private final long[] mInteractiveNanos;
+    private final long[] mAmbientNanos;
+    private final long[] mScratch;
+
+    /* Frames recorded in each mode since the last reset, which may be more than fit */
+    private long mInteractiveCount;
+    private long mAmbientCount;
+
+    private long mTickCount;
+    private long mLateTickCount;
+    private long mMissedTickCount;
+    private long mMaxTickLatenessMillis;
+
+    /**
+     * @param capacity How many of the latest frames to keep for each mode
+     */
+    public FrameStats(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mInteractiveNanos = new long[capacity];
+        mAmbientNanos = new long[capacity];
+        mScratch = new long[capacity];
+    }
+
+    /**
+     * Records how long drawing a frame took.
+     *
+     * @param ambient   Whether the frame was drawn in ambient mode
+     * @param drawNanos The draw time, from System.nanoTime
+     */
+    public void recordFrame(boolean ambient, long drawNanos) {
+        if (ambient) {
+            mAmbientNanos[(int) (mAmbientCount++ % mAmbientNanos.length)] = drawNanos;
+        } else {
+            mInteractiveNanos[(int) (mInteractiveCount++ % mInteractiveNanos.length)] = drawNanos;
+        }
+    }
+
+    /**
+     * Records an update tick.
+     *
+     * @param latenessMillis How long after it was due the tick ran
+     * @param periodMillis   How often ticks are due
+     */
+    public void recordTick(long latenessMillis, long periodMillis) {
+        mTickCount++;
+        if (latenessMillis > periodMillis / LATE_TICK_DIVISOR) {
+            mLateTickCount++;
+        }
+        if (latenessMillis >= periodMillis) {
+            mMissedTickCount += latenessMillis / periodMillis;
+        }
+        mMaxTickLatenessMillis = Math.max(mMaxTickLatenessMillis, latenessMillis);
+    }
+
+    /**
+     * @return how many frames were recorded in a mode, including those no longer in the window
+     */
+    public long getFrameCount(boolean ambient) {
+        return ambient ? mAmbientCount : mInteractiveCount;
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    /**
+     * @return how many ticks ran more than a tenth of their period late
+     */
+    public long getLateTickCount() {
+        return mLateTickCount;
+    }
+
+    /**
+     * @return how many whole periods went by without a tick, because a tick ran that late
+     */
+    public long getMissedTickCount() {
+        return mMissedTickCount;
+    }
+
+    /**
+     * Returns a draw time percentile over the frames in the window, using the nearest rank.
+     *
+     * @param ambient    Which mode to look at
+     * @param percentile From 1 to 100
+     * @return the draw time in nanoseconds, or 0 if no frames were recorded in that mode
+     */
+    public long getPercentileNanos(boolean ambient, int percentile) {
+        if (percentile < 1 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be from 1 to 100: " + percentile);
+        }
+
+        long[] frames = ambient ? mAmbientNanos : mInteractiveNanos;
+        int size = (int) Math.min(getFrameCount(ambient), frames.length);
+        if (size == 0) {
+            return 0;
+        }
+
+        System.arraycopy(frames, 0, mScratch, 0, size);
+        Arrays.sort(mScratch, 0, size);
+        int rank = (percentile * size + 99) / 100;
+        return mScratch[rank - 1];
+    }
+
+    /**
+     * Forgets every frame and tick, for a fresh baseline.
+     */
+    public void reset() {
+        mInteractiveCount = 0;
+        mAmbientCount = 0;
+        mTickCount = 0;
+        mLateTickCount = 0;
+        mMissedTickCount = 0;
+        mMaxTickLatenessMillis = 0;
+    }
+
+    /**
+     * @return one line with the draw time percentiles for a mode, for the HUD and the log
+     */
+    public String summarize(boolean ambient) {
+        return String.format(Locale.US, "%s: %d frames, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms",
+                ambient ? "ambient" : "interactive", getFrameCount(ambient),
+                toMillis(getPercentileNanos(ambient, 50)),
+                toMillis(getPercentileNanos(ambient, 95)),
+                toMillis(getPercentileNanos(ambient, 99)));
+    }
+
+    /**
+     * @return one line with the tick counts, for the HUD and the log
+     */
+    public String summarizeTicks() {
+        return String.format(Locale.US, "ticks: %d, %d late, %d missed, worst %d ms late",
+                mTickCount, mLateTickCount, mMissedTickCount, mMaxTickLatenessMillis);
+    }
+
+    @Override
+    public String toString() {
+        return summarize(false) + "\n" + summarize(true) + "\n" + summarizeTicks();
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * The handful of characters a time can contain, rendered once into a Bitmap so that drawing the
+ * time is a few bitmap copies rather than text layout.
+ * <p>
+ * The atlas holds the digits, the colon, a space and whatever characters the AM and PM markers
+ * are made of, each drawn with the Paint the atlas was built from. Since it's drawn with that
+ * Paint's anti-aliasing setting, a separate atlas built from a Paint without anti-aliasing gives
+ * the crisp glyphs low-bit ambient screens need. Glyphs are placed by their own advance, without
+ * kerning, which suits the tabular digits of a clock.
+ */
+public final class GlyphAtlas {
+
+    private final Bitmap mBitmap;
+    private final char[] mChars;
+    private final int[] mLefts;
+    private final float[] mAdvances;
+    private final int mAscent;
+    private final int mHeight;
+
+    private final Rect mSource = new Rect();
+    private final Rect mDestination = new Rect();
+
+    /**
+     * Renders the atlas.
+     *
+     * @param paint   The Paint to draw glyphs with, setting their font, size, color and
+     *                anti-aliasing. Its text alignment is ignored.
+     * @param amPm    The AM and PM markers, so that their characters are in the atlas too
+     */
+    public GlyphAtlas(Paint paint, String[] amPm) {
+        StringBuilder chars = new StringBuilder("0123456789: ");
+        for (String marker : amPm) {
+            for (int i = 0; i < marker.length(); i++) {
+                char c = marker.charAt(i);
+                if (chars.indexOf(String.valueOf(c)) < 0) {
+                    chars.append(c);
+                }
+            }
+        }
+
+        Paint glyphPaint = new Paint(paint);
+        glyphPaint.setTextAlign(Paint.Align.LEFT);
+
+        int count = chars.length();
+        mChars = new char[count];
+        mLefts = new int[count];
+        mAdvances = new float[count];
+        chars.getChars(0, count, mChars, 0);
+
+        /* Leave a pixel between glyphs so that anti-aliased edges don't bleed into neighbours */
+        int width = 0;
+        for (int i = 0; i < count; i++) {
+            mLefts[i] = width;
+            mAdvances[i] = glyphPaint.measureText(mChars, i, 1);
+            width += (int) Math.ceil(mAdvances[i]) + 1;
+        }
+
+        Paint.FontMetricsInt metrics = glyphPaint.getFontMetricsInt();
+        mAscent = -metrics.ascent;
+        mHeight = mAscent + metrics.descent;
+
+        mBitmap = Bitmap.createBitmap(Math.max(1, width), Math.max(1, mHeight),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < count; i++) {
+            canvas.drawText(mChars, i, 1, mLefts[i], mAscent, glyphPaint);
+        }
+    }
+
+    /**
+     * Draws text made of characters in the atlas, centered horizontally. Characters that aren't
+     * in the atlas are skipped.
+     *
+     * @param canvas   Canvas to draw on
+     * @param text     Buffer holding the text
+     * @param length   Number of chars of text in the buffer
+     * @param centerX  Horizontal center of the text
+     * @param baseline Baseline of the text
+     */
+    public void drawCentered(Canvas canvas, char[] text, int length, float centerX,
+                             float baseline) {
+        float width = 0;
+        for (int i = 0; i < length; i++) {
+            int glyph = indexOf(text[i]);
+            if (glyph >= 0) {
+                width += mAdvances[glyph];
+            }
+        }
+
+        float x = centerX - width / 2;
+        int top = Math.round(baseline) - mAscent;
+        for (int i = 0; i < length; i++) {
+            int glyph = indexOf(text[i]);
+            if (glyph < 0) {
+                continue;
+            }
+
+            int glyphWidth = (int) Math.ceil(mAdvances[glyph]);
+            int left = Math.round(x);
+            mSource.set(mLefts[glyph], 0, mLefts[glyph] + glyphWidth, mHeight);
+            mDestination.set(left, top, left + glyphWidth, top + mHeight);
+            canvas.drawBitmap(mBitmap, mSource, mDestination, null);
+
+            x += mAdvances[glyph];
+        }
+    }
+
+    /**
+     * Frees the atlas Bitmap. The atlas can't be used afterwards.
+     */
+    public void recycle() {
+        mBitmap.recycle();
+    }
+
+    private int indexOf(char c) {
+        for (int i = 0; i < mChars.length; i++) {
+            if (mChars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the saved weather icon on one background thread.
+ * <p>
+ * Only the latest request matters, since each one replaces the icon shown. So there is a single
+ * thread with room for one waiting request, a newer request pushes out the one waiting, and a
+ * decode that finishes after a newer request was made is thrown away rather than delivered. The
+ * icon is decoded straight to the size it is drawn at, subsampling first so that a large icon
+ * never has to be decoded at full size.
+ */
+public final class IconDecoder {
+
+    private static final String TAG = IconDecoder.class.getSimpleName();
+
+    /**
+     * Receives decoded icons, on the thread of the Handler the IconDecoder was created with.
+     */
+    public interface Callback {
+        /**
+         * @param icon The decoded icon, or null if it couldn't be loaded
+         */
+        void onIconDecoded(Bitmap icon);
+    }
+
+    private final Handler mHandler;
+    private final Callback mCallback;
+
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "IconDecoder");
+                }
+            },
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    /* Bumped by every request and cancel, so a decode can tell whether it's still wanted */
+    private volatile int mGeneration;
+
+    /**
+     * @param handler  Handler whose thread the callback runs on
+     * @param callback Receives the decoded icons
+     */
+    public IconDecoder(Handler handler, Callback callback) {
+        mHandler = handler;
+        mCallback = callback;
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Decodes an icon file, superseding any request still in progress.
+     *
+     * @param file The icon file, as saved by WeatherDataStore
+     * @param size Width and height to decode the icon to, in pixels
+     */
+    public void decode(final File file, final int size) {
+        final int generation = ++mGeneration;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    return;
+                }
+
+                final Bitmap icon = loadFile(file, size);
+
+                if (generation != mGeneration) {
+                    if (icon != null) {
+                        icon.recycle();
+                    }
+                    return;
+                }
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* Check again, in case a newer request came in while this was queued */
+                        if (generation == mGeneration) {
+                            mCallback.onIconDecoded(icon);
+                        } else if (icon != null) {
+                            icon.recycle();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drops any request in progress, for when the icon comes from somewhere else.
+     */
+    public void cancel() {
+        mGeneration++;
+    }
+
+    /**
+     * Cancels everything and stops the decode thread.
+     */
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    private static Bitmap loadFile(File file, int size) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            return decodeToSize(readFully(new FileInputStream(file)), size);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read icon file", e);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes an image to exactly size by size pixels. It is first subsampled by the largest
+     * power of two that keeps it at least that big, and density scaling during the decode then
+     * takes it the rest of the way, so no full size Bitmap is ever created.
+     */
+    static Bitmap decodeToSize(byte[] bytes, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(TAG, "Icon is not an image");
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size
+                && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inScaled = true;
+        options.inDensity = Math.max(options.outWidth, options.outHeight) / sampleSize;
+        options.inTargetDensity = size;
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        /* Density scaling keeps the aspect ratio, so only a non-square icon needs this */
+        if (bitmap.getWidth() != size || bitmap.getHeight() != size) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size, size, true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
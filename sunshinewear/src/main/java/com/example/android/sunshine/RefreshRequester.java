@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks the phone for fresher weather when what's in the {@link WeatherDataStore} is getting old,
+ * rather than waiting for the phone's next scheduled sync.
+ * <p>
+ * The phone syncs every few hours, and reports each sync, even one that didn't change the
+ * weather and so sent the watch nothing new. Weather is stale when the phone hasn't synced for
+ * {@link #STALE_AFTER_MILLIS}, which is longer than the phone's sync interval and the delay of
+ * its report together, so it means a sync was missed, for instance while the watch was
+ * disconnected. Measuring from when the weather last changed instead would make a spell of
+ * unchanged weather look stale forever. Requests are sent at most once per
+ * {@link #MIN_REQUEST_INTERVAL_MILLIS}, whether or not they got through, and the phone throttles
+ * them again on its side. The phone answers by syncing, and the new weather, or just the report
+ * of the sync, arrives through WeatherListenerService as usual.
+ * <p>
+ * Connecting and sending happen on a background thread, which waits on Google Play services
+ * with a timeout. The client is disconnected after each request, since they're hours apart.
+ */
+public final class RefreshRequester {
+
+    private static final String TAG = RefreshRequester.class.getSimpleName();
+
+    /* Handled by SunshineWearableListenerService on the phone */
+    private static final String PATH_REFRESH = "/weather/refresh";
+
+    private static final long STALE_AFTER_MILLIS = TimeUnit.HOURS.toMillis(5);
+    private static final long MIN_REQUEST_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long SEND_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /* Kept apart from WeatherDataStore's file, so that requests don't notify its listeners */
+    private static final String PREFS_NAME = "weather_refresh";
+    private static final String KEY_REQUESTED_AT = "requested_at";
+    private static final String KEY_PHONE_SYNCED_AT = "phone_synced_at";
+
+    private static RefreshRequester sInstance;
+
+    private final Handler mHandler;
+    private final GoogleApiClient mGoogleApiClient;
+    private final SharedPreferences mPreferences;
+
+    private final Runnable mSendRequest = new Runnable() {
+        @Override
+        public void run() {
+            sendRequest();
+        }
+    };
+
+    private RefreshRequester(Context context) {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        Context appContext = context.getApplicationContext();
+        mGoogleApiClient = new GoogleApiClient.Builder(appContext)
+                .addApi(Wearable.API)
+                .build();
+        mPreferences = getPreferences(appContext);
+    }
+
+    /**
+     * @param context Used to build the GoogleApiClient
+     */
+    public static synchronized RefreshRequester getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RefreshRequester(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records a sync reported by the phone. This doesn't need the requester itself, so the
+     * listener service doesn't start its thread and client just for this.
+     *
+     * @param context  Used to access SharedPreferences
+     * @param syncedAt When the phone synced, in milliseconds since the epoch
+     */
+    public static void onPhoneSynced(Context context, long syncedAt) {
+        getPreferences(context).edit().putLong(KEY_PHONE_SYNCED_AT, syncedAt).apply();
+    }
+
+    /**
+     * Asks the phone for fresh weather if the stored weather is stale and no request has been
+     * sent recently. This only reads SharedPreferences, so it's cheap enough to call whenever
+     * the watch face becomes visible.
+     *
+     * @param updatedAt When the weather was last saved, from WeatherDataStore.getUpdatedAt. That
+     *                  was after a sync too, and it's all there is from phones that don't report
+     *                  their syncs.
+     */
+    public void requestIfStale(long updatedAt) {
+        long now = System.currentTimeMillis();
+        long syncedAt = Math.max(mPreferences.getLong(KEY_PHONE_SYNCED_AT, 0), updatedAt);
+        if (syncedAt <= now && now - syncedAt < STALE_AFTER_MILLIS) {
+            return;
+        }
+
+        long requestedAt = mPreferences.getLong(KEY_REQUESTED_AT, 0);
+        if (requestedAt <= now && now - requestedAt < MIN_REQUEST_INTERVAL_MILLIS) {
+            return;
+        }
+
+        mPreferences.edit().putLong(KEY_REQUESTED_AT, now).apply();
+        mHandler.removeCallbacks(mSendRequest);
+        mHandler.post(mSendRequest);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void sendRequest() {
+        ConnectionResult connectionResult =
+                mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (!connectionResult.isSuccess()) {
+            Log.w(TAG, "Could not connect to request a refresh: " + connectionResult);
+            mGoogleApiClient.disconnect();
+            return;
+        }
+
+        try {
+            NodeApi.GetConnectedNodesResult nodesResult = Wearable.NodeApi
+                    .getConnectedNodes(mGoogleApiClient)
+                    .await(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (!nodesResult.getStatus().isSuccess()) {
+                Log.w(TAG, "Could not get connected nodes: " + nodesResult.getStatus());
+                return;
+            }
+
+            for (Node node : nodesResult.getNodes()) {
+                /* The cloud node can't run a sync */
+                if (!node.isNearby()) {
+                    continue;
+                }
+                MessageApi.SendMessageResult sendResult = Wearable.MessageApi
+                        .sendMessage(mGoogleApiClient, node.getId(), PATH_REFRESH, null)
+                        .await(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                Log.d(TAG, "Requested a refresh from " + node.getId() + ": "
+                        + sendResult.getStatus());
+            }
+        } finally {
+            mGoogleApiClient.disconnect();
+        }
+    }
+}
@@ -17,22 +17,25 @@
 package com.example.android.sunshine;
 
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.os.AsyncTask;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
@@ -46,55 +49,75 @@ import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEvent;
-import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
-import com.google.android.gms.wearable.Wearable;
-
-import java.io.InputStream;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 
 /**
- * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
- * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. In interactive
+ * mode, {@link UpdateRatePolicy} hides them too, updating once a minute, when the battery is low
+ * or nobody has interacted with the watch for a while. On devices with low-bit ambient mode, the
+ * text is drawn without anti-aliasing in ambient mode.
  */
 public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
 
     private static final String TAG = "SunshineWatchFace";
     /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
+     * Battery level, in percent, at or below which the battery counts as low when the face
+     * becomes visible. This matches the level ACTION_BATTERY_LOW is sent at on most devices.
      */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final int LOW_BATTERY_PERCENT = 15;
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
-    /*
-    Constants for retreiving weather data through Data Api.
+    /**
+     * Whether to draw with {@link WatchFaceCanvasRenderer} rather than by measuring, laying out
+     * and drawing the inflated layout every frame. The View path is kept for comparison.
+     */
+    private static final boolean USE_CANVAS_RENDERER = true;
+
+    /**
+     * How many of the latest frames {@link FrameStats} keeps for each of ambient and interactive
+     * mode. At one frame a second, that's the last few minutes.
      */
+    private static final int FRAME_STATS_CAPACITY = 256;
 
-    private static final String TEMP_HIGH = "com.sunshine.weather.hightemp";
-    private static final String TEMP_LOW = "com.sunshine.weather.lowtemp";
-    private static final String CONDITION = "com.sunshine.weather.condition";
+    /* Shared by all engines, created by the first one */
+    private WatchFaceResourceCache mResourceCache;
 
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
+    private WatchFaceResourceCache getResourceCache() {
+        if (mResourceCache == null) {
+            mResourceCache = new WatchFaceResourceCache(getResources());
+        }
+        return mResourceCache;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mResourceCache != null) {
+            mResourceCache.onTrimMemory(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (mResourceCache != null) {
+            mResourceCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    }
+
     private static class EngineHandler extends Handler {
         private final WeakReference<SunshineWeatherWatchFace.Engine> mWeakReference;
 
@@ -115,11 +138,37 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
         }
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
-    GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+    private class Engine extends CanvasWatchFaceService.Engine {
         boolean mRegisteredTimeZoneReceiver = false;
+        boolean mRegisteredBatteryReceiver = false;
+        UpdateRatePolicy mUpdateRatePolicy;
+        /* Whether interactive mode shows seconds, as last decided by mUpdateRatePolicy */
+        boolean mShowSeconds = true;
+        /* The update rate the next tick was scheduled with */
+        long mTickRateMs;
         boolean mAmbient;
-        Calendar mCalendar;
+        WatchFaceTimeFormatter mTimeFormatter;
+        /* Date version of mTimeFormatter that mDateText currently shows */
+        int mShownDateVersion;
+        /* Colors and fonts, looked up once rather than on every ambient change or frame */
+        int mBackgroundColor, mAmbientBackgroundColor, mWhiteColor;
+        int mPrimaryLightColor, mPrimaryTextColor;
+        Typeface mInteractiveFont, mAmbientFont;
+        WatchFaceResourceCache mResourceCache;
+        /* When the icon file mIconDecoder is decoding was saved, to cache it under once decoded */
+        long mDecodingIconSavedAt;
+        WatchFaceCanvasRenderer mRenderer;
+        final FrameStats mFrameStats = new FrameStats(FRAME_STATS_CAPACITY);
+        /* When the next update tick is due, or 0 if the timer was just started */
+        long mNextTickAt;
+        /**
+         * Whether to draw the frame stats over the face and log them when it's hidden. Turned on
+         * with "adb shell setprop log.tag.SunshineWatchFace DEBUG" before the face is created.
+         */
+        boolean mShowFrameStats;
+        Paint mFrameStatsPaint;
+        int mSurfaceWidth, mSurfaceHeight;
+        boolean mRound;
         private int specW, specH;
         private View mWatchFaceLayout;
         private TextView mTimeText, mDateText, mTempHighText, mTempLowText;
@@ -128,7 +177,34 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
         private final Point displaySize = new Point();
         float mXOffset = 0;
         float mYOffset = 0;
-        GoogleApiClient mGoogleApiClient;
+        IconDecoder mIconDecoder;
+        WeatherDataStore mWeatherDataStore;
+        /* The forecast from the store, or null, and the date version it was last checked at */
+        WeatherForecast mForecast;
+        int mForecastDateVersion;
+
+        /*
+         * Saving the weather changes several keys at once and each one is reported separately,
+         * so the listener only posts this, and the store is read once for the lot.
+         */
+        final Runnable mShowStoredWeather = new Runnable() {
+            @Override
+            public void run() {
+                mForecast = mWeatherDataStore.getForecast();
+                showStoredWeather();
+            }
+        };
+
+        /* Held here, since SharedPreferences only keeps a weak reference to its listeners */
+        final SharedPreferences.OnSharedPreferenceChangeListener mWeatherChangeListener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences preferences,
+                                                          String key) {
+                        mUpdateTimeHandler.removeCallbacks(mShowStoredWeather);
+                        mUpdateTimeHandler.post(mShowStoredWeather);
+                    }
+                };
         /**
          * Handler to update the time periodically in interactive mode.
          */
@@ -137,13 +213,7 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
             public void handleMessage(Message message) {
                 switch (message.what) {
                     case MSG_UPDATE_TIME:
-                        invalidate();
-                        if (shouldTimerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                                    - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                            mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
-                        }
+                        handleUpdateTimeMessage();
                         break;
                 }
             }
@@ -152,11 +222,26 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mTimeFormatter.setTimeZone(TimeZone.getDefault());
                 invalidate();
             }
         };
 
+        final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String action = intent.getAction();
+                if (Intent.ACTION_BATTERY_LOW.equals(action)) {
+                    mUpdateRatePolicy.setBatteryLow(true);
+                } else if (Intent.ACTION_BATTERY_OKAY.equals(action)) {
+                    mUpdateRatePolicy.setBatteryLow(false);
+                } else if (PowerManager.ACTION_POWER_SAVE_MODE_CHANGED.equals(action)) {
+                    mUpdateRatePolicy.setPowerSaveMode(isPowerSaveMode());
+                }
+                updateTimer();
+            }
+        };
+
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -172,44 +257,87 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
                     .setHotwordIndicatorGravity(Gravity.CENTER_HORIZONTAL|Gravity.TOP)
+                    .setAcceptsTapEvents(true)
                     .build());
 
             Resources resources = SunshineWeatherWatchFace.this.getResources();
 
-            LayoutInflater inflater =
-                    (LayoutInflater) getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            mWatchFaceLayout = inflater.inflate(R.layout.watchface, null);
-
-            mGoogleApiClient = new GoogleApiClient.Builder(SunshineWeatherWatchFace.this)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .addApi(Wearable.API)
-                    .build();
-
-            mGoogleApiClient.connect();
-
-            Display display = ((WindowManager) getSystemService(Context.WINDOW_SERVICE))
-                    .getDefaultDisplay();
-            display.getSize(displaySize);
-
-            specW = View.MeasureSpec.makeMeasureSpec(displaySize.x,
-                    View.MeasureSpec.EXACTLY);
-            specH = View.MeasureSpec.makeMeasureSpec(displaySize.y,
-                    View.MeasureSpec.EXACTLY);
+            /* The layout is only needed to draw with Views, so the Canvas path skips inflating */
+            if (!USE_CANVAS_RENDERER) {
+                LayoutInflater inflater =
+                        (LayoutInflater) getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+                mWatchFaceLayout = inflater.inflate(R.layout.watchface, null);
+
+                Display display = ((WindowManager) getSystemService(Context.WINDOW_SERVICE))
+                        .getDefaultDisplay();
+                display.getSize(displaySize);
+
+                specW = View.MeasureSpec.makeMeasureSpec(displaySize.x,
+                        View.MeasureSpec.EXACTLY);
+                specH = View.MeasureSpec.makeMeasureSpec(displaySize.y,
+                        View.MeasureSpec.EXACTLY);
+
+                mTimeText = (TextView) mWatchFaceLayout.findViewById(R.id.time_text);
+                mDateText = (TextView) mWatchFaceLayout.findViewById(R.id.date_text);
+                mTempHighText = (TextView) mWatchFaceLayout.findViewById(R.id.temp_high_text);
+                mTempLowText = (TextView) mWatchFaceLayout.findViewById(R.id.temp_low_text);
+                mWeatherIconView = (ImageView) mWatchFaceLayout.findViewById(R.id.weather_icon);
+                mSeparatorView = (View) mWatchFaceLayout.findViewById(R.id.separator);
+            }
 
-            mTimeText = (TextView) mWatchFaceLayout.findViewById(R.id.time_text);
-            mDateText = (TextView) mWatchFaceLayout.findViewById(R.id.date_text);
-            mTempHighText = (TextView) mWatchFaceLayout.findViewById(R.id.temp_high_text);
-            mTempLowText = (TextView) mWatchFaceLayout.findViewById(R.id.temp_low_text);
-            mWeatherIconView = (ImageView) mWatchFaceLayout.findViewById(R.id.weather_icon);
-            mSeparatorView = (View) mWatchFaceLayout.findViewById(R.id.separator);
+            mTimeFormatter = new WatchFaceTimeFormatter(Locale.getDefault(), TimeZone.getDefault());
+
+            /* Shared with the other engines, so a recreated engine doesn't look these up again */
+            mResourceCache = getResourceCache();
+            mBackgroundColor = mResourceCache.getBackgroundColor();
+            mAmbientBackgroundColor = mResourceCache.getAmbientBackgroundColor();
+            mWhiteColor = mResourceCache.getWhiteColor();
+            mPrimaryLightColor = mResourceCache.getPrimaryLightColor();
+            mPrimaryTextColor = mResourceCache.getPrimaryTextColor();
+            mInteractiveFont = mResourceCache.getInteractiveFont();
+            mAmbientFont = mResourceCache.getAmbientFont();
+
+            mRenderer = new WatchFaceCanvasRenderer(resources, mResourceCache);
+
+            mUpdateRatePolicy = new UpdateRatePolicy(SystemClock.elapsedRealtime());
+
+            /* Checked once, since isLoggable is too slow to call every frame */
+            mShowFrameStats = Log.isLoggable(TAG, Log.DEBUG);
+            if (mShowFrameStats) {
+                mFrameStatsPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                mFrameStatsPaint.setColor(mWhiteColor);
+                mFrameStatsPaint.setTextAlign(Paint.Align.CENTER);
+                mFrameStatsPaint.setTextSize(10 * resources.getDisplayMetrics().density);
+            }
 
-            mCalendar = Calendar.getInstance();
+            mIconDecoder = new IconDecoder(mUpdateTimeHandler, new IconDecoder.Callback() {
+                @Override
+                public void onIconDecoded(Bitmap icon) {
+                    if (icon != null) {
+                        mResourceCache.putStoredIcon(mDecodingIconSavedAt,
+                                mRenderer.getIconSize(), icon);
+                    }
+                    showIcon(icon);
+                }
+            });
+
+            /*
+             * WeatherListenerService writes whatever the phone sends to the store, so we show
+             * what's there now and then follow it for as long as the engine lives.
+             */
+            mWeatherDataStore = new WeatherDataStore(SunshineWeatherWatchFace.this);
+            mWeatherDataStore.registerListener(mWeatherChangeListener);
+            mForecast = mWeatherDataStore.getForecast();
+            showStoredWeather();
         }
 
         @Override
         public void onDestroy() {
+            mWeatherDataStore.unregisterListener(mWeatherChangeListener);
+            mUpdateTimeHandler.removeCallbacks(mShowStoredWeather);
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mIconDecoder.shutdown();
+            mRenderer.release();
             super.onDestroy();
         }
 
@@ -222,19 +350,21 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
             super.onVisibilityChanged(visible);
 
             if (visible) {
-                mGoogleApiClient.connect();
-
                 registerReceiver();
+                mUpdateRatePolicy.onInteraction(SystemClock.elapsedRealtime());
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mTimeFormatter.setTimeZone(TimeZone.getDefault());
                 invalidate();
+
+                /* If the phone's syncs haven't reached us in a while, ask it for one */
+                RefreshRequester.getInstance(SunshineWeatherWatchFace.this)
+                        .requestIfStale(mWeatherDataStore.getUpdatedAt());
             } else {
                 unregisterReceiver();
 
-                if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                    Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                    mGoogleApiClient.disconnect();
+                if (mShowFrameStats) {
+                    Log.d(TAG, "Frame stats\n" + mFrameStats);
                 }
             }
 
@@ -250,6 +380,15 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
             SunshineWeatherWatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
+
+            /* Low battery and power saving changes are only heard while visible, so catch up */
+            IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_LOW);
+            batteryFilter.addAction(Intent.ACTION_BATTERY_OKAY);
+            batteryFilter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+            SunshineWeatherWatchFace.this.registerReceiver(mBatteryReceiver, batteryFilter);
+            mRegisteredBatteryReceiver = true;
+            mUpdateRatePolicy.setBatteryLow(isBatteryLow());
+            mUpdateRatePolicy.setPowerSaveMode(isPowerSaveMode());
         }
 
         private void unregisterReceiver() {
@@ -258,12 +397,71 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = false;
             SunshineWeatherWatchFace.this.unregisterReceiver(mTimeZoneReceiver);
+
+            if (mRegisteredBatteryReceiver) {
+                mRegisteredBatteryReceiver = false;
+                SunshineWeatherWatchFace.this.unregisterReceiver(mBatteryReceiver);
+            }
+        }
+
+        /**
+         * Reads the sticky battery broadcast. A plugged in battery never counts as low, as with
+         * ACTION_BATTERY_OKAY being sent when the charger is connected.
+         */
+        private boolean isBatteryLow() {
+            Intent battery = SunshineWeatherWatchFace.this.registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (battery == null) {
+                return false;
+            }
+
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            int plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            return plugged == 0 && level >= 0 && scale > 0
+                    && level * 100 / scale <= LOW_BATTERY_PERCENT;
+        }
+
+        private boolean isPowerSaveMode() {
+            return ((PowerManager) getSystemService(Context.POWER_SERVICE)).isPowerSaveMode();
+        }
+
+        @Override
+        public void onTapCommand(int tapType, int x, int y, long eventTime) {
+            if (tapType == TAP_TYPE_TAP) {
+                onInteraction();
+            }
+        }
+
+        /**
+         * Brings the seconds back straight away, if the policy allows it.
+         */
+        private void onInteraction() {
+            mUpdateRatePolicy.onInteraction(SystemClock.elapsedRealtime());
+            if (!mShowSeconds) {
+                updateTimer();
+            }
+        }
+
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+            mRenderer.setBounds(mSurfaceWidth, mSurfaceHeight, mRound);
         }
 
         @Override
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
 
+            mRound = insets.isRound();
+            mRenderer.setBounds(mSurfaceWidth, mSurfaceHeight, mRound);
+
+            if (USE_CANVAS_RENDERER) {
+                return;
+            }
+
             if (insets.isRound()) {
                 // Shrink the face to fit on a round screen
                 mYOffset = mXOffset = displaySize.x * 0.1f;
@@ -281,6 +479,7 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mRenderer.setAmbient(mAmbient, mLowBitAmbient);
         }
 
         @Override
@@ -293,31 +492,18 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
 
-            Typeface font = Typeface.create("sans-serif-condensed",
-                    inAmbientMode ? Typeface.NORMAL : Typeface.BOLD);
-
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (inAmbientMode) {
-                    mSeparatorView.setBackgroundColor(getResources().getColor(R.color.white));
-                    mWatchFaceLayout.setBackgroundColor(getResources().getColor(R.color.black));
-                    mDateText.setTextColor(getResources().getColor(R.color.white));
-                    mTempHighText.setTextColor(getResources().getColor(R.color.white));
-                    mTempLowText.setTextColor(getResources().getColor(R.color.white));
-                    mWeatherIconView.setVisibility(View.GONE);
-
-                } else {
-                    mSeparatorView.setBackgroundColor(getResources().getColor(R.color.colorPrimaryLight));
-                    mWatchFaceLayout.setBackgroundColor(getResources().getColor(R.color.background));
-                    mDateText.setTextColor(getResources().getColor(R.color.colorPrimaryLight));
-                    mTempHighText.setTextColor(getResources().getColor(R.color.primary_text_dark));
-                    mTempLowText.setTextColor(getResources().getColor(R.color.colorPrimaryLight));
-                    mWeatherIconView.setVisibility(View.VISIBLE);
+                if (!USE_CANVAS_RENDERER) {
+                    updateViewStyle(inAmbientMode);
                 }
 
-                mDateText.setTypeface(font);
-                mTempHighText.setTypeface(font);
-                mTempLowText.setTypeface(font);
+                mRenderer.setAmbient(mAmbient, mLowBitAmbient);
+
+                /* Leaving ambient mode means the wrist was raised or the screen touched */
+                if (!inAmbientMode) {
+                    mUpdateRatePolicy.onInteraction(SystemClock.elapsedRealtime());
+                }
 
                 invalidate();
             }
@@ -327,37 +513,123 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
             updateTimer();
         }
 
+        /**
+         * Restyles the inflated layout, when drawing with Views, for ambient or interactive mode.
+         */
+        private void updateViewStyle(boolean inAmbientMode) {
+            Typeface font = inAmbientMode ? mAmbientFont : mInteractiveFont;
+
+            if (inAmbientMode) {
+                mSeparatorView.setBackgroundColor(mWhiteColor);
+                mWatchFaceLayout.setBackgroundColor(mAmbientBackgroundColor);
+                mDateText.setTextColor(mWhiteColor);
+                mTempHighText.setTextColor(mWhiteColor);
+                mTempLowText.setTextColor(mWhiteColor);
+                mWeatherIconView.setVisibility(View.GONE);
+
+            } else {
+                mSeparatorView.setBackgroundColor(mPrimaryLightColor);
+                mWatchFaceLayout.setBackgroundColor(mBackgroundColor);
+                mDateText.setTextColor(mPrimaryLightColor);
+                mTempHighText.setTextColor(mPrimaryTextColor);
+                mTempLowText.setTextColor(mPrimaryLightColor);
+                mWeatherIconView.setVisibility(View.VISIBLE);
+            }
+
+            mDateText.setTypeface(font);
+            mTempHighText.setTypeface(font);
+            mTempLowText.setTypeface(font);
+        }
+
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long startNanos = System.nanoTime();
+            drawFace(canvas);
+            mFrameStats.recordFrame(mAmbient, System.nanoTime() - startNanos);
+
+            if (mShowFrameStats) {
+                drawFrameStats(canvas, bounds);
+            }
+        }
+
+        private void drawFace(Canvas canvas) {
             long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
 
-            String time = mAmbient
-                    ? String.format("%s", new SimpleDateFormat("hh:mm a").format(mCalendar.getTimeInMillis()))
-                    : String.format("%s", new SimpleDateFormat("HH:mm:ss").format(mCalendar.getTimeInMillis()));
+            /*
+             * This runs every second, so the formatter writes into buffers it reuses and the date
+             * is only handed to its TextView again when the day has changed.
+             */
+            mTimeFormatter.update(now);
+            int timeLength = mTimeFormatter.formatTime(mAmbient, mShowSeconds);
+
+            /* Past midnight, today's weather is what the forecast had for tomorrow */
+            if (mForecastDateVersion != mTimeFormatter.getDateVersion()) {
+                mForecastDateVersion = mTimeFormatter.getDateVersion();
+                showStoredWeather();
+            }
 
-            String date = String.format("%s, %s %02d %04d", new SimpleDateFormat("EEE").format(mCalendar.get(Calendar.DAY_OF_WEEK)), new SimpleDateFormat("MMM").format(mCalendar.get(Calendar.MONTH)), mCalendar.get(Calendar.DATE), mCalendar.get(Calendar.YEAR));
+            if (USE_CANVAS_RENDERER) {
+                mRenderer.draw(canvas, mTimeFormatter.getTimeChars(), timeLength,
+                        mTimeFormatter.getDateChars(), mTimeFormatter.getDateLength(),
+                        mTimeFormatter.getDateVersion());
+                return;
+            }
 
-            mTimeText.setText(time);
+            mTimeText.setText(mTimeFormatter.getTimeChars(), 0, timeLength);
 
-            if (!mAmbient)
-                mDateText.setText(date);
+            if (mShownDateVersion != mTimeFormatter.getDateVersion()) {
+                mShownDateVersion = mTimeFormatter.getDateVersion();
+                mDateText.setText(mTimeFormatter.getDateChars(), 0,
+                        mTimeFormatter.getDateLength());
+            }
 
             mWatchFaceLayout.measure(specW, specH);
             mWatchFaceLayout.layout(0, 0, mWatchFaceLayout.getMeasuredWidth(), mWatchFaceLayout.getMeasuredHeight());
 
-            int backgroundColor = mAmbient ? getResources().getColor(R.color.black) : getResources().getColor(R.color.background);
-            canvas.drawColor(backgroundColor);
+            canvas.drawColor(mAmbient ? mAmbientBackgroundColor : mBackgroundColor);
             canvas.translate(mXOffset, mYOffset);
             mWatchFaceLayout.draw(canvas);
         }
 
+        /**
+         * Draws the draw time percentiles for the current mode and the tick counts, small, near
+         * the bottom of the face. This allocates, but only runs while debugging.
+         */
+        private void drawFrameStats(Canvas canvas, Rect bounds) {
+            float lineHeight = mFrameStatsPaint.getFontSpacing();
+            float y = bounds.height() * 0.85f;
+            canvas.drawText(String.format(Locale.US, "p50 %.1f  p95 %.1f  p99 %.1f ms",
+                    mFrameStats.getPercentileNanos(mAmbient, 50) / 1e6,
+                    mFrameStats.getPercentileNanos(mAmbient, 95) / 1e6,
+                    mFrameStats.getPercentileNanos(mAmbient, 99) / 1e6),
+                    bounds.exactCenterX(), y, mFrameStatsPaint);
+            canvas.drawText(String.format(Locale.US, "%d frames  %d/%d late ticks",
+                    mFrameStats.getFrameCount(mAmbient), mFrameStats.getLateTickCount(),
+                    mFrameStats.getTickCount()),
+                    bounds.exactCenterX(), y + lineHeight, mFrameStatsPaint);
+        }
+
+        /**
+         * Adds the frame stats to "adb shell dumpsys activity service SunshineWeatherWatchFace".
+         */
+        @Override
+        protected void dump(String prefix, FileDescriptor fd, PrintWriter out, String[] args) {
+            super.dump(prefix, fd, out, args);
+            out.print(prefix);
+            out.println(mFrameStats.summarize(false));
+            out.print(prefix);
+            out.println(mFrameStats.summarize(true));
+            out.print(prefix);
+            out.println(mFrameStats.summarizeTicks());
+        }
+
         /**
          * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
          * or stops it if it shouldn't be running but currently is.
          */
         private void updateTimer() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mNextTickAt = 0;
             if (shouldTimerBeRunning()) {
                 mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
             }
@@ -372,88 +644,92 @@ public class SunshineWeatherWatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * Handle updating the time periodically in interactive mode, once a second or once a
+         * minute, as {@link #mUpdateRatePolicy} decides on each tick.
          */
         private void handleUpdateTimeMessage() {
+            long timeMs = System.currentTimeMillis();
+            if (mNextTickAt != 0) {
+                mFrameStats.recordTick(timeMs - mNextTickAt, mTickRateMs);
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            mShowSeconds = mUpdateRatePolicy.shouldShowSeconds(now);
+
             invalidate();
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                mTickRateMs = mUpdateRatePolicy.getUpdateRateMillis(now);
+                long delayMs = mTickRateMs - (timeMs % mTickRateMs);
+                mNextTickAt = timeMs + delayMs;
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
 
-        @Override
-        public void onConnected(@Nullable Bundle bundle) {
-            Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
-            Log.w(TAG, "Wearable API connected.");
-        }
-
-        @Override
-        public void onConnectionSuspended(int i) {
-
-        }
-
-        @Override
-        public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-            if (connectionResult.getErrorCode() == ConnectionResult.API_UNAVAILABLE) {
-                Log.w(TAG, "Wearable API is unavailable.");
+        /**
+         * Shows the weather for today from the WeatherDataStore. That is the phone's current
+         * weather, unless the day has changed since the phone sent it, in which case it's today's
+         * entry in the forecast. The forecast is only decoded when the store changes.
+         */
+        private void showStoredWeather() {
+            if (!mWeatherDataStore.hasWeather()) {
+                return;
             }
-        }
 
-        @Override
-        public void onDataChanged(DataEventBuffer dataEventBuffer) {
-            Log.w(TAG, "DataItem changed.");
-
-            for (DataEvent event : dataEventBuffer) {
-                if (event.getType() == DataEvent.TYPE_CHANGED) {
-                    // DataItem changed
-                    DataItem item = event.getDataItem();
-                    if (item.getUri().getPath().compareTo("/weather") == 0) {
-                        DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-
-                        final Asset weatherConditionAsset = dataMap.getAsset(CONDITION);
-                        new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                Bitmap bitmap = loadBitmapFromAsset(weatherConditionAsset);
-                                mWeatherIconView.setImageBitmap(bitmap);
-                            }
-                        }).start();
-
-
-                        mTempHighText.setText(String.format("%02d", (int) dataMap.getDouble(TEMP_HIGH)).concat("\u00b0"));
-                        mTempLowText.setText(String.format("%02d", (int) dataMap.getDouble(TEMP_LOW)).concat("\u00b0"));
-                        invalidate();
+            long now = System.currentTimeMillis();
+            int day = (mForecast == null) ? -1
+                    : mForecast.indexOfDay(now, TimeZone.getDefault().getOffset(now));
+            if (day > 0) {
+                showWeather(mForecast.highs[day], mForecast.lows[day], mForecast.weatherIds[day]);
+                return;
+            }
 
-                    }
-                } else if (event.getType() == DataEvent.TYPE_DELETED) {
-                    // DataItem deleted
+            int weatherId = mWeatherDataStore.getWeatherId();
+            showWeather(mWeatherDataStore.getHigh(), mWeatherDataStore.getLow(), weatherId);
+            if (weatherId == WeatherDataStore.NO_WEATHER_ID) {
+                /* Another engine, such as the picker's preview, may have decoded it already */
+                long savedAt = mWeatherDataStore.getIconSavedAt();
+                int size = mRenderer.getIconSize();
+                Bitmap icon = mResourceCache.getStoredIcon(savedAt, size);
+                if (icon != null) {
+                    mIconDecoder.cancel();
+                    showIcon(icon);
+                } else {
+                    mDecodingIconSavedAt = savedAt;
+                    mIconDecoder.decode(mWeatherDataStore.getIconFile(), size);
                 }
             }
         }
 
-        public Bitmap loadBitmapFromAsset(Asset asset) {
-            if (asset == null) {
-                throw new IllegalArgumentException("Asset must be non-null");
+        /**
+         * Shows weather from the WeatherDataStore. If there's no weather id, the icon comes
+         * separately, through {@link #showIcon(Bitmap)}.
+         */
+        private void showWeather(double highInCelsius, double lowInCelsius, int weatherId) {
+            if (weatherId != WeatherDataStore.NO_WEATHER_ID) {
+                int iconId = WeatherIconUtils.getIconResourceIdForWeatherCondition(weatherId);
+                mIconDecoder.cancel();
+                if (!USE_CANVAS_RENDERER) {
+                    mWeatherIconView.setImageResource(iconId);
+                }
+                mRenderer.setIcon(mResourceCache.getWeatherIcon(iconId));
             }
 
-            ConnectionResult result =
-                    mGoogleApiClient.blockingConnect(MSG_UPDATE_TIME, TimeUnit.MILLISECONDS);
-            if (!result.isSuccess()) {
-                return null;
+            String high = String.format("%02d", (int) highInCelsius).concat("\u00b0");
+            String low = String.format("%02d", (int) lowInCelsius).concat("\u00b0");
+            if (!USE_CANVAS_RENDERER) {
+                mTempHighText.setText(high);
+                mTempLowText.setText(low);
             }
-            // convert asset into a file descriptor and block until it's ready
-            InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                    mGoogleApiClient, asset).await().getInputStream();
+            mRenderer.setTemperatures(high, low);
+            invalidate();
+        }
 
-            if (assetInputStream == null) {
-                Log.w(TAG, "Requested an unknown Asset.");
-                return null;
+        private void showIcon(Bitmap icon) {
+            if (!USE_CANVAS_RENDERER) {
+                mWeatherIconView.setImageBitmap(icon);
             }
-            // decode the stream into a bitmap
-            return BitmapFactory.decodeStream(assetInputStream);
+            mRenderer.setIcon(icon == null ? null : new BitmapDrawable(getResources(), icon));
+            invalidate();
         }
     }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how often the watch face updates in interactive mode.
+ * <p>
+ * Showing seconds means waking up and drawing every second, which is the biggest drain the face
+ * has. So seconds are only shown while someone is likely to be looking: they are hidden, and the
+ * face only updates once a minute, when the battery is low, when power saving is on, or once
+ * there has been no interaction for {@link #IDLE_TIMEOUT_MILLIS}. Any interaction, such as a tap
+ * or tilting the wrist to wake the screen, brings the seconds back unless the battery is the
+ * reason they're hidden.
+ * <p>
+ * Times are from SystemClock.elapsedRealtime, so changing the clock doesn't count as activity.
+ */
+public final class UpdateRatePolicy {
+
+    /** Update rate while seconds are shown */
+    public static final long SECONDS_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+
+    /** Update rate while seconds are hidden */
+    public static final long MINUTES_UPDATE_RATE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** How long seconds stay up after the last interaction */
+    public static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private boolean mBatteryLow;
+    private boolean mPowerSaveMode;
+    private long mLastInteraction;
+
+    /**
+     * @param now When the policy starts, which counts as an interaction
+     */
+    public UpdateRatePolicy(long now) {
+        mLastInteraction = now;
+    }
+
+    /**
+     * Records a tap, the screen waking up, or anything else that means someone is looking.
+     */
+    public void onInteraction(long now) {
+        mLastInteraction = now;
+    }
+
+    public void setBatteryLow(boolean batteryLow) {
+        mBatteryLow = batteryLow;
+    }
+
+    public void setPowerSaveMode(boolean powerSaveMode) {
+        mPowerSaveMode = powerSaveMode;
+    }
+
+    /**
+     * @return whether interactive mode should show seconds and update every second
+     */
+    public boolean shouldShowSeconds(long now) {
+        return !mBatteryLow && !mPowerSaveMode && now - mLastInteraction < IDLE_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * @return how often interactive mode should update, in milliseconds
+     */
+    public long getUpdateRateMillis(long now) {
+        return shouldShowSeconds(now) ? SECONDS_UPDATE_RATE_MS : MINUTES_UPDATE_RATE_MS;
+    }
+}
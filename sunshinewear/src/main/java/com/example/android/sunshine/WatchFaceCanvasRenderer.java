@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws the watch face straight onto the Canvas, as an alternative to measuring, laying out and
+ * drawing the inflated R.layout.watchface every frame.
+ * <p>
+ * The layout and the draw commands that make up a frame are in {@link WatchFaceRenderCore}, which
+ * doesn't depend on Android. This class is its {@link FaceCanvas}: it owns the Paints, which are
+ * created once and restyled when ambient mode changes, and carries the commands out on a Canvas.
+ * <p>
+ * Everything but the time changes a few times a day at most, so it is drawn into a cached Bitmap,
+ * the static layer, and a frame is just that Bitmap with the time drawn on top.
+ * <p>
+ * In ambient mode even the time skips text layout: it is copied glyph by glyph out of a
+ * {@link GlyphAtlas}, using an atlas without anti-aliasing on low-bit ambient screens. The colors,
+ * fonts and atlases come from the service's {@link WatchFaceResourceCache}, shared with the other
+ * engines.
+ */
+public final class WatchFaceCanvasRenderer implements FaceCanvas {
+
+    private final Paint mTimePaint = new Paint();
+    private final Paint mDatePaint = new Paint();
+    private final Paint mHighPaint = new Paint();
+    private final Paint mLowPaint = new Paint();
+    private final Paint mSeparatorPaint = new Paint();
+    /* Indexed by the FaceCanvas.PAINT_ constants */
+    private final Paint[] mPaints =
+            {mTimePaint, mDatePaint, mHighPaint, mLowPaint, mSeparatorPaint};
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+
+    private final WatchFaceResourceCache mResourceCache;
+    private final WatchFaceRenderCore mCore;
+
+    private int mWidth;
+    private int mHeight;
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+
+    private Drawable mIcon;
+
+    /* The static layer, and the Canvas that commands currently go to */
+    private Bitmap mStaticLayer;
+    private Canvas mStaticCanvas;
+    private Canvas mFrameCanvas;
+    private Canvas mTarget;
+
+    /* The ambient time glyphs in use, fetched from the cache the first time they're needed */
+    private GlyphAtlas mAmbientAtlas;
+
+    public WatchFaceCanvasRenderer(Resources resources, WatchFaceResourceCache resourceCache) {
+        mResourceCache = resourceCache;
+
+        mTimePaint.setTextSize(resources.getDimension(R.dimen.time_text_size));
+        mTimePaint.setTextAlign(Paint.Align.CENTER);
+        mDatePaint.setTextAlign(Paint.Align.CENTER);
+        mDatePaint.setTextSize(resources.getDimension(R.dimen.date_text_size));
+        mHighPaint.setTextSize(resources.getDimension(R.dimen.high_temperature_text_size));
+        mLowPaint.setTextSize(resources.getDimension(R.dimen.low_temperature_text_size));
+
+        applyStyle();
+
+        mCore = new WatchFaceRenderCore(this,
+                resources.getDimension(R.dimen.boxinset_layout_padding),
+                resources.getDimension(R.dimen.watchface_frame_padding),
+                resources.getDimension(R.dimen.weather_detail_margin_top),
+                resources.getDimensionPixelSize(R.dimen.action_drawer_item_icon_size),
+                resources.getDisplayMetrics().density);
+    }
+
+    /**
+     * Sets the size of the surface and whether the screen is round. Call this from
+     * onApplyWindowInsets.
+     */
+    public void setBounds(int width, int height, boolean round) {
+        mWidth = width;
+        mHeight = height;
+
+        if (mStaticLayer != null
+                && (mStaticLayer.getWidth() != width || mStaticLayer.getHeight() != height)) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+            mStaticCanvas = null;
+        }
+
+        mCore.setBounds(width, height, round);
+    }
+
+    /**
+     * Switches between ambient and interactive styles.
+     *
+     * @param ambient       Whether the watch is in ambient mode
+     * @param lowBitAmbient Whether the screen needs text drawn without anti-aliasing in ambient
+     */
+    public void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        mLowBitAmbient = lowBitAmbient;
+        mAmbientAtlas = null;
+        applyStyle();
+        mCore.setAmbient(ambient);
+    }
+
+    /**
+     * Sets the formatted high and low temperatures.
+     */
+    public void setTemperatures(String high, String low) {
+        mCore.setTemperatures(high, low);
+    }
+
+    /**
+     * @param icon The weather icon, or null to draw none
+     */
+    public void setIcon(Drawable icon) {
+        mIcon = icon;
+        mCore.setHasIcon(icon != null);
+    }
+
+    /**
+     * @return the width and height icons are drawn at, in pixels
+     */
+    public int getIconSize() {
+        return mCore.getIconSize();
+    }
+
+    /**
+     * Same as {@link #getIconSize()}, for code that decodes icons without a renderer at hand.
+     */
+    public static int getIconSize(Resources resources) {
+        return WatchFaceRenderCore.getIconSize(
+                resources.getDimensionPixelSize(R.dimen.action_drawer_item_icon_size),
+                resources.getDimension(R.dimen.watchface_frame_padding));
+    }
+
+    /**
+     * Frees the static layer, for when the watch face goes away, and lets go of the glyph atlas,
+     * which other engines may still be using. They are created again if needed.
+     */
+    public void release() {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+            mStaticCanvas = null;
+        }
+        mAmbientAtlas = null;
+        mCore.invalidateStaticLayer();
+    }
+
+    /**
+     * Draws a frame.
+     *
+     * @param canvas     The canvas to draw on
+     * @param time       Buffer holding the formatted time
+     * @param timeLength Number of chars of the time in the buffer
+     * @param date       Buffer holding the formatted date
+     * @param dateLength Number of chars of the date in the buffer
+     * @param dateVersion Changes whenever the date in the buffer changes, as from
+     *                    {@link WatchFaceTimeFormatter#getDateVersion()}
+     */
+    public void draw(Canvas canvas, char[] time, int timeLength, char[] date, int dateLength,
+                     int dateVersion) {
+        mFrameCanvas = canvas;
+        mTarget = canvas;
+        mCore.draw(time, timeLength, date, dateLength, dateVersion);
+        mFrameCanvas = null;
+        mTarget = null;
+    }
+
+    @Override
+    public float getAscent(int paint) {
+        mPaints[paint].getFontMetrics(mFontMetrics);
+        return mFontMetrics.ascent;
+    }
+
+    @Override
+    public float getDescent(int paint) {
+        mPaints[paint].getFontMetrics(mFontMetrics);
+        return mFontMetrics.descent;
+    }
+
+    @Override
+    public float measureText(String text, int paint) {
+        return mPaints[paint].measureText(text);
+    }
+
+    @Override
+    public void beginStaticLayer() {
+        if (mStaticLayer == null) {
+            mStaticLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mStaticCanvas = new Canvas(mStaticLayer);
+        }
+        mTarget = mStaticCanvas;
+    }
+
+    @Override
+    public void endStaticLayer() {
+        mTarget = mFrameCanvas;
+    }
+
+    @Override
+    public void drawStaticLayer() {
+        mTarget.drawBitmap(mStaticLayer, 0, 0, null);
+    }
+
+    @Override
+    public void drawBackground() {
+        mTarget.drawColor(mAmbient ? mResourceCache.getAmbientBackgroundColor()
+                : mResourceCache.getBackgroundColor());
+    }
+
+    @Override
+    public void drawText(char[] text, int length, float x, float baseline, int paint) {
+        mTarget.drawText(text, 0, length, x, baseline, mPaints[paint]);
+    }
+
+    @Override
+    public void drawText(String text, float x, float baseline, int paint) {
+        mTarget.drawText(text, x, baseline, mPaints[paint]);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, int paint) {
+        mTarget.drawRect(left, top, right, bottom, mPaints[paint]);
+    }
+
+    @Override
+    public void drawIcon(int left, int top, int size) {
+        if (mIcon != null) {
+            mIcon.setBounds(left, top, left + size, top + size);
+            mIcon.draw(mTarget);
+        }
+    }
+
+    @Override
+    public void drawAmbientTime(char[] time, int length, float centerX, float baseline) {
+        getAmbientAtlas().drawCentered(mTarget, time, length, centerX, baseline);
+    }
+
+    /* mTimePaint is already styled for ambient mode when this is called */
+    private GlyphAtlas getAmbientAtlas() {
+        if (mAmbientAtlas == null) {
+            mAmbientAtlas = mResourceCache.getAmbientAtlas(mTimePaint, mLowBitAmbient);
+        }
+        return mAmbientAtlas;
+    }
+
+    private void applyStyle() {
+        boolean antiAlias = !(mAmbient && mLowBitAmbient);
+        WatchFaceResourceCache cache = mResourceCache;
+        Typeface font = mAmbient ? cache.getAmbientFont() : cache.getInteractiveFont();
+        int white = cache.getWhiteColor();
+
+        mTimePaint.setColor(mAmbient ? white : cache.getPrimaryTextColor());
+        mDatePaint.setColor(mAmbient ? white : cache.getPrimaryLightColor());
+        mHighPaint.setColor(mAmbient ? white : cache.getPrimaryTextColor());
+        mLowPaint.setColor(mAmbient ? white : cache.getPrimaryLightColor());
+        mSeparatorPaint.setColor(mAmbient ? white : cache.getPrimaryLightColor());
+
+        mDatePaint.setTypeface(font);
+        mHighPaint.setTypeface(font);
+        mLowPaint.setTypeface(font);
+
+        mTimePaint.setAntiAlias(antiAlias);
+        mDatePaint.setAntiAlias(antiAlias);
+        mHighPaint.setAntiAlias(antiAlias);
+        mLowPaint.setAntiAlias(antiAlias);
+    }
+}
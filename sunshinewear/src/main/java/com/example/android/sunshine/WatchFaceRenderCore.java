@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+/**
+ * The part of the watch face renderer that doesn't need Android: where everything goes, and
+ * which draw commands make up a frame. It draws through a {@link FaceCanvas}, so it runs just
+ * the same on a watch, through WatchFaceCanvasRenderer, and on a JVM in tests and benchmarks.
+ * <p>
+ * It follows the layout of R.layout.watchface: the time and date centered at the top, a short
+ * separator across the middle, and the weather icon with the high and low temperatures along the
+ * bottom. Every position is worked out in {@link #updateLayout()}, which only runs when the size,
+ * insets, ambient mode or temperatures change.
+ * <p>
+ * Everything but the time goes in the static layer, which is only drawn again when the weather,
+ * date, ambient mode or bounds change. A frame is then the static layer with the time on top,
+ * and drawing one doesn't allocate.
+ */
+public final class WatchFaceRenderCore {
+
+    /* How far in from each edge the inscribed square of a round screen is, as a fraction */
+    private static final float ROUND_INSET_FRACTION = (float) ((1 - 1 / Math.sqrt(2)) / 2);
+
+    private final FaceCanvas mCanvas;
+
+    private final float mBoxPadding;
+    private final float mFramePadding;
+    private final float mDetailMarginTop;
+    private final int mIconSize;
+    private final int mIconPadding;
+    private final float mSeparatorHeight;
+
+    private int mWidth;
+    private int mHeight;
+    private boolean mRound;
+    private boolean mAmbient;
+
+    private String mHighText = "";
+    private String mLowText = "";
+    private boolean mHasIcon;
+
+    /* Whether the static layer needs drawing again before the next frame */
+    private boolean mStaticLayerValid;
+    private int mStaticLayerDateVersion;
+
+    /* Positions, all worked out by updateLayout */
+    private float mCenterX;
+    private float mTimeBaseline;
+    private float mDateBaseline;
+    private float mSeparatorLeft, mSeparatorTop, mSeparatorRight, mSeparatorBottom;
+    private float mHighX, mLowX;
+    private float mTemperatureBaseline;
+    private int mIconLeft, mIconTop;
+
+    /**
+     * @param canvas          Measures text and carries out the draw commands
+     * @param boxPadding      Padding inside the inscribed square, as
+     *                        R.dimen.boxinset_layout_padding
+     * @param framePadding    Padding around each element, as R.dimen.watchface_frame_padding
+     * @param detailMarginTop Least space above the weather row, as
+     *                        R.dimen.weather_detail_margin_top
+     * @param iconSize        Space taken by the icon, as R.dimen.action_drawer_item_icon_size
+     * @param separatorHeight Thickness of the separator
+     */
+    public WatchFaceRenderCore(FaceCanvas canvas, float boxPadding, float framePadding,
+                               float detailMarginTop, int iconSize, float separatorHeight) {
+        mCanvas = canvas;
+        mBoxPadding = boxPadding;
+        mFramePadding = framePadding;
+        mDetailMarginTop = detailMarginTop;
+        mIconSize = iconSize;
+        mIconPadding = (int) framePadding;
+        mSeparatorHeight = separatorHeight;
+    }
+
+    /**
+     * Works out the icon size the same way as {@link #getIconSize()}, without a core at hand.
+     */
+    public static int getIconSize(int iconSize, float framePadding) {
+        return iconSize - 2 * (int) framePadding;
+    }
+
+    public void setBounds(int width, int height, boolean round) {
+        mWidth = width;
+        mHeight = height;
+        mRound = round;
+        updateLayout();
+    }
+
+    /**
+     * Switches between ambient and interactive layouts. The FaceCanvas should already measure
+     * text with the fonts of the new mode.
+     */
+    public void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+        updateLayout();
+    }
+
+    /**
+     * Sets the formatted high and low temperatures. These are laid out next to the icon, so this
+     * works the positions out again.
+     */
+    public void setTemperatures(String high, String low) {
+        mHighText = high;
+        mLowText = low;
+        updateLayout();
+    }
+
+    public void setHasIcon(boolean hasIcon) {
+        mHasIcon = hasIcon;
+        invalidateStaticLayer();
+    }
+
+    /**
+     * Makes the next frame draw the static layer again, for when something the FaceCanvas
+     * draws into it, such as the icon or the colors, has changed.
+     */
+    public void invalidateStaticLayer() {
+        mStaticLayerValid = false;
+    }
+
+    /**
+     * @return the width and height icons are drawn at, in pixels
+     */
+    public int getIconSize() {
+        return mIconSize - 2 * mIconPadding;
+    }
+
+    /**
+     * Draws a frame.
+     *
+     * @param time        Buffer holding the formatted time
+     * @param timeLength  Number of chars of the time in the buffer
+     * @param date        Buffer holding the formatted date
+     * @param dateLength  Number of chars of the date in the buffer
+     * @param dateVersion Changes whenever the date in the buffer changes, as from
+     *                    {@link WatchFaceTimeFormatter#getDateVersion()}
+     */
+    public void draw(char[] time, int timeLength, char[] date, int dateLength, int dateVersion) {
+        if (mWidth == 0 || mHeight == 0) {
+            return;
+        }
+
+        if (!mStaticLayerValid || dateVersion != mStaticLayerDateVersion) {
+            mCanvas.beginStaticLayer();
+            drawStaticLayer(date, dateLength);
+            mCanvas.endStaticLayer();
+            mStaticLayerValid = true;
+            mStaticLayerDateVersion = dateVersion;
+        }
+
+        mCanvas.drawStaticLayer();
+
+        if (mAmbient) {
+            mCanvas.drawAmbientTime(time, timeLength, mCenterX, mTimeBaseline);
+        } else {
+            mCanvas.drawText(time, timeLength, mCenterX, mTimeBaseline, FaceCanvas.PAINT_TIME);
+        }
+    }
+
+    private void drawStaticLayer(char[] date, int dateLength) {
+        mCanvas.drawBackground();
+
+        mCanvas.drawText(date, dateLength, mCenterX, mDateBaseline, FaceCanvas.PAINT_DATE);
+        mCanvas.drawRect(mSeparatorLeft, mSeparatorTop, mSeparatorRight, mSeparatorBottom,
+                FaceCanvas.PAINT_SEPARATOR);
+
+        if (!mAmbient && mHasIcon) {
+            mCanvas.drawIcon(mIconLeft, mIconTop, getIconSize());
+        }
+        mCanvas.drawText(mHighText, mHighX, mTemperatureBaseline, FaceCanvas.PAINT_HIGH);
+        mCanvas.drawText(mLowText, mLowX, mTemperatureBaseline, FaceCanvas.PAINT_LOW);
+    }
+
+    private void updateLayout() {
+        mStaticLayerValid = false;
+        if (mWidth == 0 || mHeight == 0) {
+            return;
+        }
+
+        /* Like BoxInsetLayout, keep the content inside the inscribed square of a round screen */
+        float insetX = mRound ? mWidth * ROUND_INSET_FRACTION : 0;
+        float insetY = mRound ? mHeight * ROUND_INSET_FRACTION : 0;
+        float top = insetY + mBoxPadding + mFramePadding;
+        float bottom = mHeight - insetY - mBoxPadding - mFramePadding;
+        mCenterX = mWidth / 2f;
+
+        mTimeBaseline = top - mCanvas.getAscent(FaceCanvas.PAINT_TIME);
+        float timeBottom = mTimeBaseline + mCanvas.getDescent(FaceCanvas.PAINT_TIME);
+
+        mDateBaseline = timeBottom - mCanvas.getAscent(FaceCanvas.PAINT_DATE);
+
+        float separatorHalfWidth = mFramePadding;
+        float centerY = mHeight / 2f;
+        mSeparatorLeft = mCenterX - separatorHalfWidth;
+        mSeparatorRight = mCenterX + separatorHalfWidth;
+        mSeparatorTop = centerY - mSeparatorHeight / 2;
+        mSeparatorBottom = centerY + mSeparatorHeight / 2;
+
+        /* The icon and temperatures sit along the bottom, centered as a row */
+        float highAscent = mCanvas.getAscent(FaceCanvas.PAINT_HIGH);
+        float highDescent = mCanvas.getDescent(FaceCanvas.PAINT_HIGH);
+        mTemperatureBaseline = Math.max(bottom - mFramePadding - highDescent,
+                mDateBaseline + mDetailMarginTop - highAscent);
+
+        float highWidth = mCanvas.measureText(mHighText, FaceCanvas.PAINT_HIGH)
+                + 2 * mFramePadding;
+        float lowWidth = mCanvas.measureText(mLowText, FaceCanvas.PAINT_LOW)
+                + 2 * mFramePadding;
+        float rowLeft = mCenterX - (mIconSize + highWidth + lowWidth) / 2;
+
+        mHighX = rowLeft + mIconSize + mFramePadding;
+        mLowX = rowLeft + mIconSize + highWidth + mFramePadding;
+
+        mIconLeft = Math.round(rowLeft) + mIconPadding;
+        mIconTop = Math.round(mTemperatureBaseline + highDescent) - mIconSize + mIconPadding;
+    }
+
+    float getTimeBaseline() {
+        return mTimeBaseline;
+    }
+
+    float getTemperatureBaseline() {
+        return mTemperatureBaseline;
+    }
+
+    int getIconLeft() {
+        return mIconLeft;
+    }
+
+    int getIconTop() {
+        return mIconTop;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+import java.text.DateFormatSymbols;
+
+/**
+ * Resources that every engine of the watch face service needs and can share, such as the active
+ * face and the previews in the watch face picker, which the system creates and destroys often.
+ * <p>
+ * The colors and fonts are looked up once, when the cache is created. The weather icons, the
+ * ambient glyph atlases and the last icon decoded from the store are made the first time an
+ * engine asks for them, and dropped by {@link #onTrimMemory(int)}. Dropping them only forgets
+ * them here: an engine still using one keeps it, and nothing is recycled under its feet.
+ * <p>
+ * Paints aren't shared, since each engine styles its own for ambient mode independently.
+ * Everything is used on the main thread, so nothing here is synchronized.
+ */
+public final class WatchFaceResourceCache {
+
+    private final Resources mResources;
+
+    private final int mBackgroundColor;
+    private final int mAmbientBackgroundColor;
+    private final int mWhiteColor;
+    private final int mPrimaryLightColor;
+    private final int mPrimaryTextColor;
+    private final Typeface mInteractiveFont;
+    private final Typeface mAmbientFont;
+    private final String[] mAmPmStrings;
+
+    /* Bundled weather icons, keyed by drawable resource id */
+    private final SparseArray<Drawable.ConstantState> mWeatherIcons =
+            new SparseArray<Drawable.ConstantState>();
+
+    private GlyphAtlas mAmbientAtlas;
+    private GlyphAtlas mLowBitAmbientAtlas;
+
+    /* The icon last decoded from WeatherDataStore, and which save and size it's for */
+    private Bitmap mStoredIcon;
+    private long mStoredIconSavedAt;
+    private int mStoredIconSize;
+
+    public WatchFaceResourceCache(Resources resources) {
+        mResources = resources;
+        mBackgroundColor = resources.getColor(R.color.background);
+        mAmbientBackgroundColor = resources.getColor(R.color.black);
+        mWhiteColor = resources.getColor(R.color.white);
+        mPrimaryLightColor = resources.getColor(R.color.colorPrimaryLight);
+        mPrimaryTextColor = resources.getColor(R.color.primary_text_dark);
+        mInteractiveFont = Typeface.create("sans-serif-condensed", Typeface.BOLD);
+        mAmbientFont = Typeface.create("sans-serif-condensed", Typeface.NORMAL);
+        mAmPmStrings = DateFormatSymbols.getInstance().getAmPmStrings();
+    }
+
+    public int getBackgroundColor() {
+        return mBackgroundColor;
+    }
+
+    public int getAmbientBackgroundColor() {
+        return mAmbientBackgroundColor;
+    }
+
+    public int getWhiteColor() {
+        return mWhiteColor;
+    }
+
+    public int getPrimaryLightColor() {
+        return mPrimaryLightColor;
+    }
+
+    public int getPrimaryTextColor() {
+        return mPrimaryTextColor;
+    }
+
+    public Typeface getInteractiveFont() {
+        return mInteractiveFont;
+    }
+
+    public Typeface getAmbientFont() {
+        return mAmbientFont;
+    }
+
+    /**
+     * Returns a bundled weather icon. Each call returns a new Drawable, so engines can set their
+     * own bounds, but they all share the decoded Bitmap.
+     *
+     * @param resourceId from WeatherIconUtils
+     */
+    public Drawable getWeatherIcon(int resourceId) {
+        Drawable.ConstantState state = mWeatherIcons.get(resourceId);
+        if (state == null) {
+            Drawable icon = mResources.getDrawable(resourceId, null);
+            state = icon.getConstantState();
+            if (state == null) {
+                return icon;
+            }
+            mWeatherIcons.put(resourceId, state);
+        }
+        return state.newDrawable(mResources);
+    }
+
+    /**
+     * Returns the ambient time glyphs, building them the first time.
+     *
+     * @param timePaint The ambient time Paint. Every engine styles it the same way, which is what
+     *                  makes the atlas shareable.
+     * @param lowBit    Whether this is the atlas without anti-aliasing
+     */
+    public GlyphAtlas getAmbientAtlas(Paint timePaint, boolean lowBit) {
+        if (lowBit) {
+            if (mLowBitAmbientAtlas == null) {
+                mLowBitAmbientAtlas = new GlyphAtlas(timePaint, mAmPmStrings);
+            }
+            return mLowBitAmbientAtlas;
+        }
+        if (mAmbientAtlas == null) {
+            mAmbientAtlas = new GlyphAtlas(timePaint, mAmPmStrings);
+        }
+        return mAmbientAtlas;
+    }
+
+    /**
+     * @param savedAt From WeatherDataStore.getIconSavedAt
+     * @param size    Size the icon is needed at, in pixels
+     * @return the icon decoded from the store for that save and size, or null if there isn't one
+     */
+    public Bitmap getStoredIcon(long savedAt, int size) {
+        if (mStoredIcon != null && mStoredIconSavedAt == savedAt && mStoredIconSize == size) {
+            return mStoredIcon;
+        }
+        return null;
+    }
+
+    public void putStoredIcon(long savedAt, int size, Bitmap icon) {
+        mStoredIcon = icon;
+        mStoredIconSavedAt = savedAt;
+        mStoredIconSize = size;
+    }
+
+    /**
+     * Drops what can be made again once memory gets tight. Call it from the service's
+     * onTrimMemory, and with TRIM_MEMORY_COMPLETE from onLowMemory.
+     */
+    public void onTrimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+        mWeatherIcons.clear();
+        mAmbientAtlas = null;
+        mLowBitAmbientAtlas = null;
+        mStoredIcon = null;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import java.text.DateFormatSymbols;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats the time and date shown by the watch face into reusable char buffers, without
+ * allocating anything once it has warmed up.
+ * <p>
+ * Going through Calendar for every frame is what costs, so the formatter only does that when a
+ * new hour starts. It remembers where the current hour starts, and within the hour the minutes
+ * and seconds are just arithmetic on the elapsed milliseconds. That holds as long as the UTC offset
+ * stays what it was when the hour started. Most transitions happen on a local hour, but not all of
+ * them, such as Caracas moving from -4:30 to -4 at 02:30, so every update also compares the zone's
+ * offset, which TimeZone looks up without allocating, and starts the hour again if it differs.
+ * The date is only formatted again when the day changes,
+ * and {@link #getDateVersion()} tells callers when that happened so that they don't have to copy
+ * it every frame either.
+ * <p>
+ * The formats are "HH:mm:ss" in interactive mode, or "HH:mm" when seconds are hidden, "hh:mm a"
+ * in ambient mode, and "EEE, MMM dd yyyy" for the date, with names taken from the locale's
+ * DateFormatSymbols.
+ */
+public final class WatchFaceTimeFormatter {
+
+    private static final long SECOND_MILLIS = 1000;
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    private final Calendar mCalendar;
+    private TimeZone mTimeZone;
+
+    private final String[] mShortWeekdays;
+    private final String[] mShortMonths;
+    private final String[] mAmPmStrings;
+
+    /* The hour we're in, as [mHourStart, mHourEnd), with mHourEnd <= mHourStart meaning none */
+    private long mHourStart;
+    private long mHourEnd;
+    /* The zone's UTC offset when the hour started */
+    private int mHourOffset;
+    private int mHourOfDay;
+    private int mMinute;
+    private int mSecond;
+
+    /* The day the date buffer was last formatted for */
+    private int mYear = -1;
+    private int mDayOfYear = -1;
+
+    private final char[] mTime;
+    private int mTimeLength;
+
+    private char[] mDate = new char[32];
+    private int mDateLength;
+    private int mDateVersion;
+
+    public WatchFaceTimeFormatter(Locale locale, TimeZone timeZone) {
+        mCalendar = Calendar.getInstance(timeZone, locale);
+        mTimeZone = timeZone;
+
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+        mShortWeekdays = symbols.getShortWeekdays();
+        mShortMonths = symbols.getShortMonths();
+        mAmPmStrings = symbols.getAmPmStrings();
+
+        int longestAmPm = Math.max(mAmPmStrings[Calendar.AM].length(),
+                mAmPmStrings[Calendar.PM].length());
+        mTime = new char["HH:mm:ss".length() + 1 + longestAmPm];
+    }
+
+    /**
+     * Switches to another time zone, for when the user changes it. The next {@link #update}
+     * works everything out again.
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mTimeZone = timeZone;
+        mHourEnd = mHourStart;
+        mYear = -1;
+        mDayOfYear = -1;
+    }
+
+    /**
+     * Moves the formatter to a new time. This doesn't allocate unless a new hour has started or
+     * the UTC offset has changed.
+     *
+     * @param timeMillis The time to show, as from System.currentTimeMillis()
+     */
+    public void update(long timeMillis) {
+        if (timeMillis < mHourStart || timeMillis >= mHourEnd
+                || mTimeZone.getOffset(timeMillis) != mHourOffset) {
+            startHour(timeMillis);
+        }
+
+        long elapsed = timeMillis - mHourStart;
+        mMinute = (int) (elapsed / MINUTE_MILLIS);
+        mSecond = (int) (elapsed % MINUTE_MILLIS / SECOND_MILLIS);
+    }
+
+    /**
+     * Formats the time last passed to {@link #update} into the buffer returned by
+     * {@link #getTimeChars()}.
+     *
+     * @param ambient Whether to use the ambient format, without seconds
+     * @return the number of chars written
+     */
+    public int formatTime(boolean ambient) {
+        return formatTime(ambient, true);
+    }
+
+    /**
+     * Same as {@link #formatTime(boolean)}, except that the interactive format can leave out the
+     * seconds, as "HH:mm", for when the face only updates once a minute.
+     *
+     * @param ambient     Whether to use the ambient format, without seconds
+     * @param showSeconds Whether the interactive format includes the seconds
+     * @return the number of chars written
+     */
+    public int formatTime(boolean ambient, boolean showSeconds) {
+        int length;
+        if (ambient) {
+            int hour = mHourOfDay % 12;
+            length = putTwoDigits(mTime, 0, hour == 0 ? 12 : hour);
+            mTime[length++] = ':';
+            length = putTwoDigits(mTime, length, mMinute);
+            mTime[length++] = ' ';
+            length = putString(mTime, length,
+                    mAmPmStrings[mHourOfDay < 12 ? Calendar.AM : Calendar.PM]);
+        } else {
+            length = putTwoDigits(mTime, 0, mHourOfDay);
+            mTime[length++] = ':';
+            length = putTwoDigits(mTime, length, mMinute);
+            if (showSeconds) {
+                mTime[length++] = ':';
+                length = putTwoDigits(mTime, length, mSecond);
+            }
+        }
+        mTimeLength = length;
+        return length;
+    }
+
+    public char[] getTimeChars() {
+        return mTime;
+    }
+
+    /** @return the length of the time last written by {@link #formatTime} */
+    public int getTimeLength() {
+        return mTimeLength;
+    }
+
+    public char[] getDateChars() {
+        return mDate;
+    }
+
+    public int getDateLength() {
+        return mDateLength;
+    }
+
+    /**
+     * @return a number that changes whenever the date is formatted again, so callers can tell
+     * whether the date they last showed is still current
+     */
+    public int getDateVersion() {
+        return mDateVersion;
+    }
+
+    private void startHour(long timeMillis) {
+        mCalendar.setTimeInMillis(timeMillis);
+        mHourOffset = mTimeZone.getOffset(timeMillis);
+        mHourOfDay = mCalendar.get(Calendar.HOUR_OF_DAY);
+
+        int year = mCalendar.get(Calendar.YEAR);
+        int dayOfYear = mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (year != mYear || dayOfYear != mDayOfYear) {
+            mYear = year;
+            mDayOfYear = dayOfYear;
+            formatDate(mCalendar.get(Calendar.DAY_OF_WEEK), mCalendar.get(Calendar.MONTH),
+                    mCalendar.get(Calendar.DAY_OF_MONTH), year);
+        }
+
+        /*
+         * Work the start of the hour out from the fields rather than by setting them to zero,
+         * since in the hour repeated when daylight saving time ends, Calendar would resolve
+         * 01:00 to the first of the two.
+         */
+        mHourStart = timeMillis
+                - mCalendar.get(Calendar.MINUTE) * MINUTE_MILLIS
+                - mCalendar.get(Calendar.SECOND) * SECOND_MILLIS
+                - mCalendar.get(Calendar.MILLISECOND);
+        mHourEnd = mHourStart + HOUR_MILLIS;
+    }
+
+    private void formatDate(int dayOfWeek, int month, int dayOfMonth, int year) {
+        String weekday = mShortWeekdays[dayOfWeek];
+        String monthName = mShortMonths[month];
+
+        /* Names are short, but some locales have longer ones than we sized for */
+        int needed = weekday.length() + 2 + monthName.length() + 1 + 2 + 1 + 4;
+        if (needed > mDate.length) {
+            mDate = Arrays.copyOf(mDate, needed);
+        }
+
+        int length = putString(mDate, 0, weekday);
+        mDate[length++] = ',';
+        mDate[length++] = ' ';
+        length = putString(mDate, length, monthName);
+        mDate[length++] = ' ';
+        length = putTwoDigits(mDate, length, dayOfMonth);
+        mDate[length++] = ' ';
+        length = putTwoDigits(mDate, length, year / 100 % 100);
+        length = putTwoDigits(mDate, length, year % 100);
+
+        mDateLength = length;
+        mDateVersion++;
+    }
+
+    private static int putTwoDigits(char[] buffer, int offset, int value) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+        return offset + 2;
+    }
+
+    private static int putString(char[] buffer, int offset, String value) {
+        int length = value.length();
+        value.getChars(0, length, buffer, offset);
+        return offset + length;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the latest weather from the phone on the watch. WeatherListenerService writes to it as
+ * data items arrive, whether or not the watch face is showing, and engines show what's in it,
+ * both as soon as they're created and whenever it changes.
+ * <p>
+ * The temperatures, weather id and packed forecast go in their own SharedPreferences file. An
+ * icon that came as an Asset, from phones that still send those, is saved as a PNG in the files
+ * directory. Writes happen whenever the weather changes, which is a few times a day.
+ */
+public final class WeatherDataStore {
+
+    private static final String TAG = WeatherDataStore.class.getSimpleName();
+
+    /** Weather id stored when the phone only sent an icon Asset */
+    public static final int NO_WEATHER_ID = -1;
+
+    private static final String PREFS_NAME = "weather";
+    private static final String KEY_HIGH = "high";
+    private static final String KEY_LOW = "low";
+    private static final String KEY_WEATHER_ID = "weather_id";
+    private static final String KEY_FORECAST = "forecast";
+    private static final String KEY_UPDATED_AT = "updated_at";
+    private static final String KEY_ICON_SAVED_AT = "icon_saved_at";
+
+    private static final String ICON_FILE = "weather_icon.png";
+
+    private final SharedPreferences mPreferences;
+    private final File mIconFile;
+
+    public WeatherDataStore(Context context) {
+        Context appContext = context.getApplicationContext();
+        mPreferences = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mIconFile = new File(appContext.getFilesDir(), ICON_FILE);
+    }
+
+    /**
+     * Saves the latest weather. Any icon saved for the previous weather is deleted first, so
+     * that engines don't show it with the new temperatures while a new icon is still loading.
+     * This deletes a file, so call it off the main thread.
+     *
+     * @param high      Today's high in Celsius
+     * @param low       Today's low in Celsius
+     * @param weatherId Today's OpenWeatherMap weather id, or {@link #NO_WEATHER_ID}
+     * @param forecast  The packed forecast, or null if the phone didn't send one
+     */
+    public void saveWeather(double high, double low, int weatherId, byte[] forecast) {
+        if (mIconFile.exists() && !mIconFile.delete()) {
+            Log.w(TAG, "Could not delete " + mIconFile);
+        }
+
+        SharedPreferences.Editor editor = mPreferences.edit()
+                .putLong(KEY_HIGH, Double.doubleToRawLongBits(high))
+                .putLong(KEY_LOW, Double.doubleToRawLongBits(low))
+                .putInt(KEY_WEATHER_ID, weatherId)
+                .putLong(KEY_UPDATED_AT, System.currentTimeMillis())
+                .remove(KEY_ICON_SAVED_AT);
+        if (forecast != null) {
+            editor.putString(KEY_FORECAST, Base64.encodeToString(forecast, Base64.NO_WRAP));
+        } else {
+            editor.remove(KEY_FORECAST);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Saves an icon that came as an Asset, and lets observers know. This writes a file, so call
+     * it off the main thread.
+     */
+    public void saveIcon(Bitmap icon) {
+        File temporaryFile = new File(mIconFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temporaryFile);
+            icon.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!temporaryFile.renameTo(mIconFile)) {
+                Log.w(TAG, "Could not rename " + temporaryFile);
+                return;
+            }
+            /* The file itself can't be observed, so this is what listeners hear about */
+            mPreferences.edit().putLong(KEY_ICON_SAVED_AT, System.currentTimeMillis()).apply();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save icon", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    /* Nothing useful to do */
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a listener that hears about every change to the stored weather. SharedPreferences
+     * only keeps a weak reference to it, so the caller has to hold on to it.
+     */
+    public void registerListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        mPreferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public void unregisterListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        mPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * @return whether any weather has been saved
+     */
+    public boolean hasWeather() {
+        return mPreferences.contains(KEY_UPDATED_AT);
+    }
+
+    public double getHigh() {
+        return Double.longBitsToDouble(mPreferences.getLong(KEY_HIGH, 0));
+    }
+
+    public double getLow() {
+        return Double.longBitsToDouble(mPreferences.getLong(KEY_LOW, 0));
+    }
+
+    /**
+     * @return the saved weather id, or {@link #NO_WEATHER_ID} if the icon came as an Asset
+     */
+    public int getWeatherId() {
+        return mPreferences.getInt(KEY_WEATHER_ID, NO_WEATHER_ID);
+    }
+
+    /**
+     * Decodes the saved forecast. The face keeps it to show the next day's weather once the day
+     * changes, in case the phone hasn't synced by then.
+     *
+     * @return the saved forecast, or null if there is none or it can't be decoded
+     */
+    public WeatherForecast getForecast() {
+        String forecast = mPreferences.getString(KEY_FORECAST, null);
+        if (forecast == null) {
+            return null;
+        }
+        try {
+            return WeatherForecast.decode(Base64.decode(forecast, Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring forecast: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return when the weather was last saved, in milliseconds since the epoch, or 0 if never
+     */
+    public long getUpdatedAt() {
+        return mPreferences.getLong(KEY_UPDATED_AT, 0);
+    }
+
+    /**
+     * @return when the icon was last saved, in milliseconds since the epoch, or 0 if never. This
+     * changes with every save, so it identifies the icon in the file.
+     */
+    public long getIconSavedAt() {
+        return mPreferences.getLong(KEY_ICON_SAVED_AT, 0);
+    }
+
+    /**
+     * @return the file the icon saved by {@link #saveIcon} is in. It may not exist.
+     */
+    public File getIconFile() {
+        return mIconFile;
+    }
+}
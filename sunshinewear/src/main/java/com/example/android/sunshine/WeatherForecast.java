@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The multi-day forecast sent by the phone, held in primitive arrays indexed by day.
+ * <p>
+ * The phone packs the forecast with WearForecastEncoder, which documents the format. This class
+ * has to be kept in sync with it.
+ */
+public final class WeatherForecast {
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int BYTES_PER_DAY = 8 + 2 + 2 + 2;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** Number of days in the forecast */
+    public final int days;
+
+    /** Normalized UTC midnight of each day, in milliseconds */
+    public final long[] dates;
+
+    /** High and low of each day, in whole degrees Celsius */
+    public final short[] highs;
+    public final short[] lows;
+
+    /** OpenWeatherMap weather id of each day */
+    public final short[] weatherIds;
+
+    private WeatherForecast(int days) {
+        this.days = days;
+        dates = new long[days];
+        highs = new short[days];
+        lows = new short[days];
+        weatherIds = new short[days];
+    }
+
+    /**
+     * Decodes a forecast packed by the phone.
+     *
+     * @param packed The bytes from the forecast data map entry
+     * @return the decoded forecast
+     * @throws IllegalArgumentException If the bytes are in a format we don't understand or are
+     *                                  truncated
+     */
+    public static WeatherForecast decode(byte[] packed) {
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+        try {
+            byte version = buffer.get();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown forecast format " + version);
+            }
+
+            short days = buffer.getShort();
+            if (days < 0 || days > buffer.remaining() / BYTES_PER_DAY) {
+                throw new IllegalArgumentException("Bad day count " + days + " in forecast of "
+                        + packed.length + " bytes");
+            }
+
+            WeatherForecast forecast = new WeatherForecast(days);
+            for (int i = 0; i < forecast.days; i++) {
+                forecast.dates[i] = buffer.getLong();
+            }
+            for (int i = 0; i < forecast.days; i++) {
+                forecast.highs[i] = buffer.getShort();
+            }
+            for (int i = 0; i < forecast.days; i++) {
+                forecast.lows[i] = buffer.getShort();
+            }
+            for (int i = 0; i < forecast.days; i++) {
+                forecast.weatherIds[i] = buffer.getShort();
+            }
+            return forecast;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated forecast of " + packed.length + " bytes");
+        }
+    }
+
+    /**
+     * Finds the day that a time falls on, going by the local date. The phone dates each day by
+     * UTC midnight of the local date it covers, so that's what this compares.
+     *
+     * @param timeMillis      The time, as from System.currentTimeMillis()
+     * @param utcOffsetMillis The local UTC offset at that time, from TimeZone.getOffset
+     * @return the index of the day, or -1 if the forecast doesn't cover it
+     */
+    public int indexOfDay(long timeMillis, int utcOffsetMillis) {
+        long localMillis = timeMillis + utcOffsetMillis;
+        long localDays = localMillis / DAY_MILLIS;
+        if (localMillis % DAY_MILLIS < 0) {
+            localDays--;
+        }
+
+        long date = localDays * DAY_MILLIS;
+        for (int i = 0; i < days; i++) {
+            if (dates[i] == date) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.WearableListenerService;
+
+/**
+ * Receives the weather data item from the phone and writes it to the {@link WeatherDataStore},
+ * which the watch face engines observe.
+ * <p>
+ * Google Play services starts this service whenever the "/weather" item changes, whether or not
+ * the watch face is showing, so the engine never has to hold a Data Layer connection of its own
+ * and doesn't miss updates while it's hidden. The icon Asset from older phones is loaded with the
+ * {@link AssetLoader} and saved before onDataChanged returns, since the process may be killed
+ * once it has. The phone also reports each sync in "/weather/synced", which goes to the
+ * {@link RefreshRequester}.
+ */
+public class WeatherListenerService extends WearableListenerService {
+
+    private static final String TAG = WeatherListenerService.class.getSimpleName();
+
+    private static final String PATH_WEATHER = "/weather";
+    private static final String PATH_SYNCED = "/weather/synced";
+
+    /*
+    Constants for retreiving weather data through Data Api.
+     */
+
+    private static final String TEMP_HIGH = "com.sunshine.weather.hightemp";
+    private static final String TEMP_LOW = "com.sunshine.weather.lowtemp";
+    private static final String CONDITION = "com.sunshine.weather.condition";
+    private static final String WEATHER_ID = "com.sunshine.weather.id";
+    private static final String PAYLOAD_VERSION = "com.sunshine.weather.version";
+    private static final String FORECAST = "com.sunshine.weather.forecast";
+    private static final String SYNCED_AT = "com.sunshine.weather.syncedat";
+
+    /*
+     * Payloads without a version come from phones that only send the icon as an Asset. From
+     * version 2 on, the phone sends the weather id and we use our own icons.
+     */
+    private static final int PAYLOAD_VERSION_ASSET = 1;
+    private static final int PAYLOAD_VERSION_COMPACT = 2;
+
+    @Override
+    public void onDataChanged(DataEventBuffer dataEventBuffer) {
+        for (DataEvent event : dataEventBuffer) {
+            if (event.getType() != DataEvent.TYPE_CHANGED) {
+                continue;
+            }
+
+            DataItem item = event.getDataItem();
+            String path = item.getUri().getPath();
+            if (PATH_WEATHER.equals(path)) {
+                saveWeather(DataMapItem.fromDataItem(item).getDataMap());
+            } else if (PATH_SYNCED.equals(path)) {
+                RefreshRequester.onPhoneSynced(this,
+                        DataMapItem.fromDataItem(item).getDataMap().getLong(SYNCED_AT));
+            }
+        }
+    }
+
+    private void saveWeather(DataMap dataMap) {
+        WeatherDataStore weatherDataStore = new WeatherDataStore(this);
+
+        int payloadVersion = dataMap.getInt(PAYLOAD_VERSION, PAYLOAD_VERSION_ASSET);
+
+        int weatherId = WeatherDataStore.NO_WEATHER_ID;
+        if (payloadVersion >= PAYLOAD_VERSION_COMPACT && dataMap.containsKey(WEATHER_ID)) {
+            weatherId = dataMap.getInt(WEATHER_ID);
+        }
+
+        weatherDataStore.saveWeather(dataMap.getDouble(TEMP_HIGH), dataMap.getDouble(TEMP_LOW),
+                weatherId, dataMap.getByteArray(FORECAST));
+        Log.d(TAG, "Saved weather, payload version " + payloadVersion);
+
+        /*
+         * The temperatures show straight away, without an icon, since saving the weather deleted
+         * the old one. An icon Asset follows once it's loaded. onDataChanged already runs on a
+         * background thread, so we wait for it here.
+         */
+        AssetLoader assetLoader = AssetLoader.getInstance(this);
+        Asset asset = dataMap.getAsset(CONDITION);
+        if (weatherId != WeatherDataStore.NO_WEATHER_ID || asset == null) {
+            assetLoader.cancel();
+            return;
+        }
+
+        Bitmap icon = assetLoader.loadAndWait(asset,
+                WatchFaceCanvasRenderer.getIconSize(getResources()));
+        if (icon != null) {
+            weatherDataStore.saveIcon(icon);
+            icon.recycle();
+        }
+    }
+}
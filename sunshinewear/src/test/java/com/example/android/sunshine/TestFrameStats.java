@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the percentiles and tick counts FrameStats reports.
+ */
+public class TestFrameStats {
+
+    @Test
+    public void testPercentilesPerMode() {
+        FrameStats stats = new FrameStats(100);
+
+        /* Interactive frames take 1 to 100 ns, recorded out of order */
+        for (int i = 0; i < 100; i++) {
+            stats.recordFrame(false, (i * 37) % 100 + 1);
+        }
+        stats.recordFrame(true, 5000);
+
+        assertEquals(50, stats.getPercentileNanos(false, 50));
+        assertEquals(95, stats.getPercentileNanos(false, 95));
+        assertEquals(99, stats.getPercentileNanos(false, 99));
+        assertEquals(100, stats.getPercentileNanos(false, 100));
+
+        assertEquals(5000, stats.getPercentileNanos(true, 50));
+        assertEquals(1, stats.getFrameCount(true));
+    }
+
+    @Test
+    public void testWindowKeepsLatestFrames() {
+        FrameStats stats = new FrameStats(10);
+
+        for (int i = 0; i < 10; i++) {
+            stats.recordFrame(false, 1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            stats.recordFrame(false, 1);
+        }
+
+        assertEquals(1, stats.getPercentileNanos(false, 99));
+        assertEquals(20, stats.getFrameCount(false));
+    }
+
+    @Test
+    public void testNoFrames() {
+        FrameStats stats = new FrameStats(10);
+        assertEquals(0, stats.getPercentileNanos(true, 50));
+    }
+
+    @Test
+    public void testLateTicks() {
+        FrameStats stats = new FrameStats(10);
+
+        stats.recordTick(0, 1000);
+        stats.recordTick(100, 1000);
+        stats.recordTick(101, 1000);
+        stats.recordTick(2500, 1000);
+
+        assertEquals(4, stats.getTickCount());
+        assertEquals(2, stats.getLateTickCount());
+        assertEquals(2, stats.getMissedTickCount());
+
+        stats.reset();
+        assertEquals(0, stats.getTickCount());
+        assertEquals(0, stats.getFrameCount(false));
+    }
+}
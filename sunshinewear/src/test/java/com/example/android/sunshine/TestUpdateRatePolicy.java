@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when UpdateRatePolicy shows seconds and when it drops to once a minute.
+ */
+public class TestUpdateRatePolicy {
+
+    private static final long START = 1000000;
+
+    @Test
+    public void testIdleHidesSecondsUntilInteraction() {
+        UpdateRatePolicy policy = new UpdateRatePolicy(START);
+
+        long idle = START + UpdateRatePolicy.IDLE_TIMEOUT_MILLIS;
+        assertTrue(policy.shouldShowSeconds(idle - 1));
+        assertFalse(policy.shouldShowSeconds(idle));
+        assertEquals(UpdateRatePolicy.MINUTES_UPDATE_RATE_MS, policy.getUpdateRateMillis(idle));
+
+        policy.onInteraction(idle);
+        assertTrue(policy.shouldShowSeconds(idle));
+        assertEquals(UpdateRatePolicy.SECONDS_UPDATE_RATE_MS, policy.getUpdateRateMillis(idle));
+    }
+
+    @Test
+    public void testLowBatteryWinsOverInteraction() {
+        UpdateRatePolicy policy = new UpdateRatePolicy(START);
+
+        policy.setBatteryLow(true);
+        policy.onInteraction(START);
+        assertFalse(policy.shouldShowSeconds(START));
+
+        policy.setBatteryLow(false);
+        assertTrue(policy.shouldShowSeconds(START));
+    }
+
+    @Test
+    public void testPowerSaveModeHidesSeconds() {
+        UpdateRatePolicy policy = new UpdateRatePolicy(START);
+
+        policy.setPowerSaveMode(true);
+        assertFalse(policy.shouldShowSeconds(START));
+
+        policy.setPowerSaveMode(false);
+        assertTrue(policy.shouldShowSeconds(START));
+    }
+}
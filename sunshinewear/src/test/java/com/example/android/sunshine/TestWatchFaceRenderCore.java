@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the layout and draw commands of WatchFaceRenderCore, and benchmarks a full frame, as the
+ * engine draws it, in interactive and ambient mode.
+ * <p>
+ * The benchmarks fail if a frame allocates anything, or takes longer than
+ * {@link #MAX_FRAME_NANOS} on average, which is far more than it should ever need on a JVM.
+ * Their timings are printed, to compare builds against each other.
+ */
+public class TestWatchFaceRenderCore {
+
+    /* October 19th, 2016 at 00:00:01, GMT time */
+    private static final long START_TIME = 1476835201000L;
+
+    private static final long SECOND_MILLIS = 1000;
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 320;
+
+    private static final int WARM_UP_FRAMES = 20000;
+    private static final int BENCHMARK_FRAMES = 10000;
+    private static final long MAX_FRAME_NANOS = 50 * 1000;
+
+    /**
+     * Counts commands, and measures text as if each char were half as wide as the text is tall.
+     */
+    private static class CountingFaceCanvas implements FaceCanvas {
+        int staticLayers;
+        int frames;
+        int icons;
+        int ambientTimes;
+        boolean inStaticLayer;
+
+        private static final float[] TEXT_SIZES = {40, 14, 20, 20, 1};
+
+        @Override
+        public float getAscent(int paint) {
+            return -0.9f * TEXT_SIZES[paint];
+        }
+
+        @Override
+        public float getDescent(int paint) {
+            return 0.25f * TEXT_SIZES[paint];
+        }
+
+        @Override
+        public float measureText(String text, int paint) {
+            return text.length() * TEXT_SIZES[paint] / 2;
+        }
+
+        @Override
+        public void beginStaticLayer() {
+            assertTrue(!inStaticLayer);
+            inStaticLayer = true;
+            staticLayers++;
+        }
+
+        @Override
+        public void endStaticLayer() {
+            assertTrue(inStaticLayer);
+            inStaticLayer = false;
+        }
+
+        @Override
+        public void drawStaticLayer() {
+            assertTrue(!inStaticLayer);
+            frames++;
+        }
+
+        @Override
+        public void drawBackground() {
+            assertTrue(inStaticLayer);
+        }
+
+        @Override
+        public void drawText(char[] text, int length, float x, float baseline, int paint) {
+        }
+
+        @Override
+        public void drawText(String text, float x, float baseline, int paint) {
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, int paint) {
+        }
+
+        @Override
+        public void drawIcon(int left, int top, int size) {
+            assertTrue(inStaticLayer);
+            icons++;
+        }
+
+        @Override
+        public void drawAmbientTime(char[] time, int length, float centerX, float baseline) {
+            assertTrue(!inStaticLayer);
+            ambientTimes++;
+        }
+    }
+
+    private static WatchFaceRenderCore createCore(FaceCanvas canvas, boolean round) {
+        WatchFaceRenderCore core = new WatchFaceRenderCore(canvas, 5, 4, 8, 48, 2);
+        core.setBounds(WIDTH, HEIGHT, round);
+        core.setTemperatures("25\u00b0", "16\u00b0");
+        core.setHasIcon(true);
+        return core;
+    }
+
+    @Test
+    public void testLayoutStaysInsideRoundScreen() {
+        WatchFaceRenderCore square = createCore(new CountingFaceCanvas(), false);
+        WatchFaceRenderCore round = createCore(new CountingFaceCanvas(), true);
+
+        assertTrue(round.getTimeBaseline() > square.getTimeBaseline());
+        assertTrue(round.getTemperatureBaseline() < HEIGHT);
+        assertTrue(round.getTimeBaseline() < round.getTemperatureBaseline());
+        assertTrue(round.getIconLeft() > 0);
+        assertTrue(round.getIconTop() > round.getTimeBaseline());
+        assertEquals(40, round.getIconSize());
+    }
+
+    @Test
+    public void testStaticLayerOnlyRedrawnWhenNeeded() {
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        WatchFaceRenderCore core = createCore(canvas, true);
+        char[] time = "12:34:56".toCharArray();
+        char[] date = "Wed, Oct 19 2016".toCharArray();
+
+        core.draw(time, time.length, date, date.length, 1);
+        core.draw(time, time.length, date, date.length, 1);
+        assertEquals(1, canvas.staticLayers);
+        assertEquals(2, canvas.frames);
+        assertEquals(1, canvas.icons);
+
+        /* A new day, new weather and a mode change each redraw it */
+        core.draw(time, time.length, date, date.length, 2);
+        assertEquals(2, canvas.staticLayers);
+        core.setTemperatures("26\u00b0", "16\u00b0");
+        core.draw(time, time.length, date, date.length, 2);
+        assertEquals(3, canvas.staticLayers);
+        core.setAmbient(true);
+        core.draw(time, time.length, date, date.length, 2);
+        assertEquals(4, canvas.staticLayers);
+
+        /* No icon in ambient mode, and the time comes from the glyph atlas */
+        assertEquals(3, canvas.icons);
+        assertEquals(1, canvas.ambientTimes);
+    }
+
+    @Test
+    public void testNothingDrawnWithoutBounds() {
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        WatchFaceRenderCore core = new WatchFaceRenderCore(canvas, 5, 4, 8, 48, 2);
+        char[] time = "12:34:56".toCharArray();
+
+        core.draw(time, time.length, time, time.length, 1);
+        assertEquals(0, canvas.frames);
+    }
+
+    @Test
+    public void testInteractiveFrameBenchmark() {
+        benchmark(false);
+    }
+
+    @Test
+    public void testAmbientFrameBenchmark() {
+        benchmark(true);
+    }
+
+    private static void benchmark(boolean ambient) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        WatchFaceTimeFormatter formatter =
+                new WatchFaceTimeFormatter(Locale.US, TimeZone.getTimeZone("America/New_York"));
+        CountingFaceCanvas canvas = new CountingFaceCanvas();
+        WatchFaceRenderCore core = createCore(canvas, true);
+        core.setAmbient(ambient);
+        long threadId = Thread.currentThread().getId();
+
+        /* Warm up, which also lets the JIT compile the frame path */
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            drawFrame(formatter, core, ambient,
+                    START_TIME + (i % BENCHMARK_FRAMES) * SECOND_MILLIS);
+        }
+
+        /* Reading the counter can allocate by itself, so measure that and subtract it */
+        long overheadStart = threadBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadBean.getThreadAllocatedBytes(threadId) - overheadStart;
+
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_FRAMES; i++) {
+            drawFrame(formatter, core, ambient, START_TIME + i * SECOND_MILLIS);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - startBytes - overhead;
+
+        long nanosPerFrame = elapsedNanos / BENCHMARK_FRAMES;
+        System.out.println((ambient ? "Ambient" : "Interactive") + " frame: " + nanosPerFrame
+                + " ns, " + allocated / BENCHMARK_FRAMES + " bytes allocated");
+
+        assertEquals("Bytes allocated over " + BENCHMARK_FRAMES + " frames", 0, allocated);
+        assertTrue("Average frame took " + nanosPerFrame + " ns",
+                nanosPerFrame < MAX_FRAME_NANOS);
+    }
+
+    /* What the engine does in onDraw */
+    private static void drawFrame(WatchFaceTimeFormatter formatter, WatchFaceRenderCore core,
+                                  boolean ambient, long time) {
+        formatter.update(time);
+        int timeLength = formatter.formatTime(ambient);
+        core.draw(formatter.getTimeChars(), timeLength, formatter.getDateChars(),
+                formatter.getDateLength(), formatter.getDateVersion());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that WatchFaceTimeFormatter agrees with SimpleDateFormat, and that formatting a frame
+ * doesn't allocate once the formatter has warmed up.
+ */
+public class TestWatchFaceTimeFormatter {
+
+    /* October 19th, 2016 at 00:00:01, GMT time */
+    private static final long START_TIME = 1476835201000L;
+
+    private static final long SECOND_MILLIS = 1000;
+    private static final long HOUR_MILLIS = 60 * 60 * SECOND_MILLIS;
+
+    private static final String[] TIME_ZONES = {
+            "UTC", "America/Los_Angeles", "Asia/Kolkata", "Australia/Lord_Howe", "Europe/London"
+    };
+
+    @Test
+    public void testMatchesSimpleDateFormat() {
+        for (String id : TIME_ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(id);
+            WatchFaceTimeFormatter formatter = new WatchFaceTimeFormatter(Locale.US, timeZone);
+
+            SimpleDateFormat interactive = new SimpleDateFormat("HH:mm:ss", Locale.US);
+            SimpleDateFormat minutes = new SimpleDateFormat("HH:mm", Locale.US);
+            SimpleDateFormat ambient = new SimpleDateFormat("hh:mm a", Locale.US);
+            SimpleDateFormat date = new SimpleDateFormat("EEE, MMM dd yyyy", Locale.US);
+            interactive.setTimeZone(timeZone);
+            minutes.setTimeZone(timeZone);
+            ambient.setTimeZone(timeZone);
+            date.setTimeZone(timeZone);
+
+            /* Step in odd increments for a year, to cross days, months and DST changes */
+            for (long time = START_TIME; time < START_TIME + 366 * 24 * HOUR_MILLIS;
+                 time += 37 * 60 * SECOND_MILLIS + 13 * SECOND_MILLIS) {
+                formatter.update(time);
+                Date expected = new Date(time);
+
+                int length = formatter.formatTime(false);
+                assertEquals(id + " at " + time, interactive.format(expected),
+                        new String(formatter.getTimeChars(), 0, length));
+
+                length = formatter.formatTime(false, false);
+                assertEquals(id + " at " + time, minutes.format(expected),
+                        new String(formatter.getTimeChars(), 0, length));
+
+                length = formatter.formatTime(true);
+                assertEquals(id + " at " + time, ambient.format(expected),
+                        new String(formatter.getTimeChars(), 0, length));
+
+                assertEquals(id + " at " + time, date.format(expected),
+                        new String(formatter.getDateChars(), 0, formatter.getDateLength()));
+            }
+        }
+    }
+
+    @Test
+    public void testOffsetChangeMidHour() {
+        /* Caracas went from -4:30 to -4 at 02:30 local time on May 1st, 2016, which is 07:00 GMT */
+        long transition = 1462086000000L;
+        long minuteMillis = 60 * SECOND_MILLIS;
+        WatchFaceTimeFormatter formatter =
+                new WatchFaceTimeFormatter(Locale.US, TimeZone.getTimeZone("America/Caracas"));
+
+        formatter.update(transition - 10 * minuteMillis);
+        int length = formatter.formatTime(false);
+        assertEquals("02:20:00", new String(formatter.getTimeChars(), 0, length));
+
+        /* Still within the hour that started at 02:00, but the clock has jumped to 03:00 */
+        formatter.update(transition + 5 * minuteMillis);
+        length = formatter.formatTime(false);
+        assertEquals("03:05:00", new String(formatter.getTimeChars(), 0, length));
+
+        formatter.update(transition + 6 * minuteMillis + SECOND_MILLIS);
+        length = formatter.formatTime(false);
+        assertEquals("03:06:01", new String(formatter.getTimeChars(), 0, length));
+    }
+
+    @Test
+    public void testDateVersionOnlyChangesWithTheDay() {
+        WatchFaceTimeFormatter formatter =
+                new WatchFaceTimeFormatter(Locale.US, TimeZone.getTimeZone("UTC"));
+
+        formatter.update(START_TIME);
+        int version = formatter.getDateVersion();
+
+        formatter.update(START_TIME + 23 * HOUR_MILLIS);
+        assertEquals(version, formatter.getDateVersion());
+
+        formatter.update(START_TIME + 24 * HOUR_MILLIS);
+        assertEquals(version + 1, formatter.getDateVersion());
+    }
+
+    @Test
+    public void testNoAllocationsPerFrame() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        WatchFaceTimeFormatter formatter =
+                new WatchFaceTimeFormatter(Locale.US, TimeZone.getTimeZone("America/New_York"));
+        long threadId = Thread.currentThread().getId();
+
+        /* Warm up, which starts the hour and lets the JIT compile the frame path */
+        for (int i = 0; i < 20000; i++) {
+            drawFrame(formatter, START_TIME + (i % 3000) * SECOND_MILLIS);
+        }
+
+        /* Reading the counter can allocate by itself, so measure that and subtract it */
+        long overheadStart = threadBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadBean.getThreadAllocatedBytes(threadId) - overheadStart;
+
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 3000; i++) {
+            drawFrame(formatter, START_TIME + i * SECOND_MILLIS);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+
+        assertEquals("Bytes allocated over 3000 frames", 0, allocated);
+    }
+
+    /* What the watch face does each frame, alternating between interactive and ambient */
+    private static void drawFrame(WatchFaceTimeFormatter formatter, long time) {
+        formatter.update(time);
+        formatter.formatTime((time / SECOND_MILLIS & 1) == 0);
+        formatter.getDateVersion();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that WeatherForecast reads the format WearForecastEncoder writes, and rejects bytes
+ * that don't hold what they claim to.
+ */
+public class TestWeatherForecast {
+
+    /* October 19th, 2016 at midnight, GMT time */
+    private static final long FIRST_DATE = 1476835200000L;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static ByteBuffer pack(int declaredDays, int days) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + days * (8 + 2 + 2 + 2));
+        buffer.put((byte) 1);
+        buffer.putShort((short) declaredDays);
+        for (int i = 0; i < days; i++) {
+            buffer.putLong(FIRST_DATE + i * DAY_MILLIS);
+        }
+        for (int i = 0; i < days; i++) {
+            buffer.putShort((short) (20 + i));
+        }
+        for (int i = 0; i < days; i++) {
+            buffer.putShort((short) (10 - i));
+        }
+        for (int i = 0; i < days; i++) {
+            buffer.putShort((short) 800);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void testDecodesEveryColumn() {
+        WeatherForecast forecast = WeatherForecast.decode(pack(3, 3).array());
+
+        assertEquals(3, forecast.days);
+        assertEquals(FIRST_DATE + 2 * DAY_MILLIS, forecast.dates[2]);
+        assertEquals(21, forecast.highs[1]);
+        assertEquals(8, forecast.lows[2]);
+        assertEquals(800, forecast.weatherIds[0]);
+    }
+
+    @Test
+    public void testFindsDayByLocalDate() {
+        WeatherForecast forecast = WeatherForecast.decode(pack(3, 3).array());
+        int hourMillis = 60 * 60 * 1000;
+
+        /* 22:00 GMT on the first day is already the second day at UTC+3 */
+        long evening = FIRST_DATE + 22 * hourMillis;
+        assertEquals(0, forecast.indexOfDay(evening, 0));
+        assertEquals(1, forecast.indexOfDay(evening, 3 * hourMillis));
+
+        /* And 02:00 GMT on the second day is still the first day at UTC-5 */
+        long night = FIRST_DATE + DAY_MILLIS + 2 * hourMillis;
+        assertEquals(0, forecast.indexOfDay(night, -5 * hourMillis));
+
+        assertEquals(2, forecast.indexOfDay(FIRST_DATE + 2 * DAY_MILLIS, 0));
+        assertEquals(-1, forecast.indexOfDay(FIRST_DATE + 3 * DAY_MILLIS, 0));
+        assertEquals(-1, forecast.indexOfDay(FIRST_DATE - 1, 0));
+    }
+
+    @Test
+    public void testRejectsNegativeDayCount() {
+        assertRejected(pack(-1, 2).array());
+    }
+
+    @Test
+    public void testRejectsMoreDaysThanTheBytesHold() {
+        assertRejected(pack(3, 2).array());
+        assertRejected(pack(Short.MAX_VALUE, 0).array());
+    }
+
+    private static void assertRejected(byte[] packed) {
+        boolean rejected = false;
+        try {
+            WeatherForecast.decode(packed);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+}